@@ -0,0 +1,41 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+/**
+ * Forward complex FFT of power-of-two length <em>n</em>, data interleaved as
+ * re, im: X_k = sum_j x_j exp(-2 pi i j k / n), k = 0..n-1.
+ *
+ * It is the complex kernel inside {@link RealDoubleFFT} for real length 2n,
+ * so the plan is shared with it through FFTPlanCache.
+ */
+public class ComplexDoubleFFT {
+  private final RealDoubleFFT_Radix2 radix2;
+  private final double[] ch;  // reusable work array
+  private final int ndim;
+
+  /**
+   * @param n number of complex points, a power of 2.
+   */
+  public ComplexDoubleFFT(int n) {
+    if (!RealDoubleFFT_Radix2.isPowerOfTwo(n)) {
+      throw new IllegalArgumentException("ComplexDoubleFFT: n must be a power of 2");
+    }
+    ndim = n;
+    radix2 = FFTPlanCache.getRadix2(2 * n);
+    ch = new double[2 * n];
+  }
+
+  /**
+   * Forward transform of x[0..2n-1] (n complex numbers) in place.
+   */
+  public void ft(double x[]) {
+    if (x.length != 2 * ndim)
+      throw new IllegalArgumentException("The length of data can not match that of the wavetable");
+    radix2.cfftf(x, ch);
+    System.arraycopy(ch, 0, x, 0, 2 * ndim);
+  }
+
+  /** Number of complex points. */
+  public int length() {
+    return ndim;
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of twiddle tables ("plans"), keyed by transform length.
+ *
+ * Plans are never written after construction, so FFT instances of the same
+ * length in any thread share one copy; each instance only owns its work arrays.
+ * The cache keeps the most recently used MAX_PLANS lengths of each kind.
+ */
+final class FFTPlanCache {
+  static final int MAX_PLANS = 16;
+
+  private static final Lru<RealDoubleFFT_Radix2> radix2 = new Lru<RealDoubleFFT_Radix2>();
+  private static final Lru<double[]> wavetables = new Lru<double[]>();
+  private static final Lru<RealDoubleFFT_Bluestein> bluestein = new Lru<RealDoubleFFT_Bluestein>();
+
+  private FFTPlanCache() {}
+
+  @SuppressWarnings("serial")  // never serialized
+  private static class Lru<V> extends LinkedHashMap<Integer, V> {
+    Lru() {
+      super(MAX_PLANS + 1, 0.75f, true);  // access order
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+      return size() > MAX_PLANS;
+    }
+  }
+
+  static synchronized RealDoubleFFT_Radix2 getRadix2(int n) {
+    RealDoubleFFT_Radix2 p = radix2.get(n);
+    if (p == null) {
+      p = new RealDoubleFFT_Radix2(n);
+      radix2.put(n, p);
+    }
+    return p;
+  }
+
+  /**
+   * Wavetable of RealDoubleFFT_Mixed (factors and twiddles from rffti()).
+   * Callers must not modify it.
+   */
+  static synchronized double[] getWavetable(int n) {
+    double[] w = wavetables.get(n);
+    if (w == null) {
+      w = new double[2*n + 15];
+      new RealDoubleFFT_Mixed().rffti(n, w);
+      wavetables.put(n, w);
+    }
+    return w;
+  }
+
+  static synchronized RealDoubleFFT_Bluestein getBluestein(int n) {
+    RealDoubleFFT_Bluestein p = bluestein.get(n);
+    if (p == null) {
+      p = new RealDoubleFFT_Bluestein(n);
+      bluestein.put(n, p);
+    }
+    return p;
+  }
+}
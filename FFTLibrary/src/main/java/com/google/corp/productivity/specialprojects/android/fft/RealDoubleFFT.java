@@ -34,28 +34,73 @@ public class RealDoubleFFT extends RealDoubleFFT_Mixed {
    * (<em>bt</em>) will multiply the input sequence by <em>norm_factor</em>.
    */
   public double norm_factor;
-  private double wavetable[];
+
+  /**
+   * Lengths with a prime factor above this use Bluestein's algorithm instead of
+   * the mixed radix one, whose generic radix costs O(p) per sample for factor p.
+   */
+  public static final int BLUESTEIN_MIN_PRIME = 100;
+
+  private double wavetable[];           // shared, read only, see FFTPlanCache
+  private RealDoubleFFT_Radix2 radix2;  // used instead of wavetable when ndim is a power of 2
+  private RealDoubleFFT_Bluestein bluestein;  // used when ndim has a large prime factor
   private double[] ch;	// reusable work array
+  private double[] chBluestein;  // second work array of bluestein
+  private double[] chBatch;  // work array of ft(x, offset, stride, nFrames), grown on demand
+  private double[] hartley;  // work array of bt() for non power of 2 length
   private int ndim;
 
   /**
    * Construct a wavenumber table with size <em>n</em>.
-   * The sequences with the same size can share a wavenumber table. The prime
+   * The sequences with the same size share a wavenumber table. The prime
    * factorization of <em>n</em> together with a tabulation of the trigonometric functions
-   * are computed and stored.
+   * are computed once per process and cached (see FFTPlanCache); each instance
+   * only allocates its own work arrays, so instances may be used in different threads.
    *
    * @param  n  the size of a real data sequence. When <em>n</em> is a multiplication of small
-   * numbers (4, 2, 3, 5), this FFT transform is very efficient.
+   * numbers (4, 2, 3, 5), this FFT transform is very efficient. When <em>n</em> is a power
+   * of 2, a dedicated radix-2^2 kernel is used. When <em>n</em> has a prime factor larger
+   * than BLUESTEIN_MIN_PRIME, Bluestein's algorithm is used, which costs about as much as
+   * two complex FFTs of size 2*<em>n</em> to 4*<em>n</em> (see doc/fft_performance.txt).
    */
   public RealDoubleFFT(int n)
   {
     ndim = n;
     norm_factor = n;
-    if(wavetable == null || wavetable.length !=(2*ndim+15)) {
-      wavetable = new double[2*ndim + 15];
+    if (RealDoubleFFT_Radix2.isPowerOfTwo(n)) {
+      radix2 = FFTPlanCache.getRadix2(n);
+      ch = new double[n];
+    } else if (largestPrimeFactor(n) > BLUESTEIN_MIN_PRIME) {
+      bluestein = FFTPlanCache.getBluestein(n);
+      ch = new double[2 * bluestein.m];
+      chBluestein = new double[2 * bluestein.m];
+    } else {
+      wavetable = FFTPlanCache.getWavetable(n);
+      ch = new double[n];
+    }
+  }
+
+  /** Largest prime factor of n, 1 for n = 1. Lengths with only 2, 3, 5 are the fastest. */
+  public static int largestPrimeFactor(int n) {
+    int p = 1;
+    for (int f = 2; (long)f * f <= n; f++) {
+      while (n % f == 0) {
+        n /= f;
+        p = f;
+      }
+    }
+    return n > 1 ? n : p;
+  }
+
+  // Forward transform of x, length ndim, by whichever kernel this instance uses.
+  private void forward(double x[]) {
+    if (radix2 != null) {
+      radix2.rfftf(x, ch);
+    } else if (bluestein != null) {
+      bluestein.rfftf(x, ch, chBluestein);
+    } else {
+      rfftf(ndim, x, wavetable, ch);
     }
-    rffti(ndim, wavetable);
-    ch = new double[n];
   }
 
   /**
@@ -82,6 +127,133 @@ public class RealDoubleFFT extends RealDoubleFFT_Mixed {
   public void ft(double x[]) {
     if(x.length != ndim)
       throw new IllegalArgumentException("The length of data can not match that of the wavetable");
-    rfftf(ndim, x, wavetable, ch);
+    forward(x);
+  }
+
+  /**
+   * Forward transform of <em>nFrames</em> sequences stored in one array, each in place.
+   * Frame <em>f</em> is <em>x</em>[<em>offset</em> + <em>f</em>*<em>stride</em>] to
+   * <em>x</em>[<em>offset</em> + <em>f</em>*<em>stride</em> + <em>n</em> - 1],
+   * output layout is the same as {@link #ft(double[])}.
+   * For power of 2 <em>n</em> the frames are transformed together pass by pass,
+   * which saves the per-call overhead when frames are short and many.
+   *
+   * @param stride distance between frame starts, at least <em>n</em>.
+   */
+  public void ft(double x[], int offset, int stride, int nFrames) {
+    if (nFrames < 0 || stride < ndim || offset < 0
+        || (nFrames > 0 && offset + (long)(nFrames - 1) * stride + ndim > x.length))
+      throw new IllegalArgumentException("Frames do not fit in data or overlap each other");
+    if (nFrames == 0) return;
+    if (radix2 != null) {
+      if (chBatch == null || chBatch.length < ndim * nFrames) {
+        chBatch = new double[ndim * nFrames];
+      }
+      radix2.rfftf(x, offset, stride, nFrames, chBatch);
+    } else {
+      if (chBatch == null || chBatch.length < ndim) {
+        chBatch = new double[ndim];
+      }
+      for (int f = 0, o = offset; f < nFrames; f++, o += stride) {
+        System.arraycopy(x, o, chBatch, 0, ndim);
+        forward(chBatch);
+        System.arraycopy(chBatch, 0, x, o, ndim);
+      }
+    }
+  }
+
+  /**
+   * Forward transform of <em>nFrames</em> frames (laid out as in
+   * {@link #ft(double[], int, int, int)}) fused with the conversion to power:
+   * for each frame, (2|X_k|/n)^2 is added to <em>power</em>[k] for
+   * 0 &lt; k &lt; n/2, and (|X_k|/n)^2 for k = 0 and k = n/2, i.e. the squared
+   * amplitude of a sinusoid at bin k (squared value for DC).
+   * <em>power</em> needs n/2+1 elements. The frames in <em>x</em> are used as work space.
+   * For power of 2 n the spectrum is never written back, so the extra passes
+   * over the half-complex output are saved.
+   *
+   * @param accumulate if false, <em>power</em> is cleared first.
+   */
+  public void ftPower(double x[], int offset, int stride, int nFrames, double power[], boolean accumulate) {
+    if (nFrames < 0 || stride < ndim || offset < 0
+        || (nFrames > 0 && offset + (long)(nFrames - 1) * stride + ndim > x.length))
+      throw new IllegalArgumentException("Frames do not fit in data or overlap each other");
+    if (power.length < ndim/2 + 1)
+      throw new IllegalArgumentException("power should have at least n/2+1 elements");
+    if (!accumulate) {
+      for (int k = 0; k <= ndim/2; k++) power[k] = 0;
+    }
+    if (nFrames == 0) return;
+    double scale = 4.0 / ((double)ndim * ndim);
+    if (radix2 != null && ndim >= 4) {
+      if (chBatch == null || chBatch.length < ndim * nFrames) {
+        chBatch = new double[ndim * nFrames];
+      }
+      radix2.rfftfPower(x, offset, stride, nFrames, chBatch, power, scale);
+      return;
+    }
+    ft(x, offset, stride, nFrames);
+    for (int f = 0, o = offset; f < nFrames; f++, o += stride) {
+      addPower(x, o, ndim, power, scale);
+    }
+  }
+
+  /** Single frame version of {@link #ftPower(double[], int, int, int, double[], boolean)}. */
+  public void ftPower(double x[], double power[], boolean accumulate) {
+    ftPower(x, 0, ndim, 1, power, accumulate);
+  }
+
+  // power[k] += scale * |X_k|^2 (scale/4 at DC and Nyquist) of the half-complex spectrum h[o..o+n-1]
+  static void addPower(double[] h, int o, int n, double[] power, double scale) {
+    power[0] += h[o]*h[o] * scale / 4;
+    int k = 1;
+    for (int i = o + 1; i < o + n - 1; i += 2, k++) {
+      power[k] += (h[i]*h[i] + h[i+1]*h[i+1]) * scale;
+    }
+    if (n % 2 == 0 && n > 1) {
+      power[k] += h[o+n-1]*h[o+n-1] * scale / 4;
+    }
+  }
+
+  /**
+   * Backward real FFT transform. It is the unnormalized inverse of {@link #ft(double[])}:
+   * a call of <em>ft</em> followed by <em>bt</em> multiplies the sequence by <em>norm_factor</em>.
+   *
+   * @param x an array containing the transform coeffients, in the layout produced by
+   * <em>ft</em>. After the call it contains the real data sequence.
+   */
+  public void bt(double x[]) {
+    if(x.length != ndim)
+      throw new IllegalArgumentException("The length of data can not match that of the wavetable");
+    if (radix2 != null) {
+      radix2.rfftb(x, ch);
+      return;
+    }
+    if (ndim == 1) return;
+    // Only forward mixed radix and Bluestein kernels exist. Use the Hartley trick:
+    // with a = Re X, b = Im X extended to k = 0..n-1, the forward transform H of
+    // the real sequence h = a - b gives x_j = Re H_j - Im H_j, x_{n-j} = Re H_j + Im H_j.
+    if (hartley == null) {
+      hartley = new double[ndim];
+    }
+    final double[] h = hartley;
+    int n = ndim;
+    h[0] = x[0];
+    for (int k = 1; 2 * k < n; k++) {
+      h[k]     = x[2*k-1] - x[2*k];
+      h[n - k] = x[2*k-1] + x[2*k];
+    }
+    if (n % 2 == 0) {
+      h[n/2] = x[n-1];
+    }
+    forward(h);
+    x[0] = h[0];
+    for (int k = 1; 2 * k < n; k++) {
+      x[k]     = h[2*k-1] - h[2*k];
+      x[n - k] = h[2*k-1] + h[2*k];
+    }
+    if (n % 2 == 0) {
+      x[n/2] = h[n-1];
+    }
   }
 }
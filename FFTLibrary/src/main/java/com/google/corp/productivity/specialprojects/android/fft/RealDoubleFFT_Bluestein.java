@@ -0,0 +1,90 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+/**
+ * Real FFT of any length by Bluestein's chirp-z algorithm.
+ *
+ * X_k = w_k * sum_j (x_j w_j) conj(w_{k-j}),  w_k = exp(-i pi k^2 / n),
+ * i.e. a convolution, done by complex power-of-two FFTs of length M >= 2n-1.
+ * Costs two complex FFTs of size M per transform, independent of the factors of n,
+ * so it is used instead of RealDoubleFFT_Mixed when n has a large prime factor.
+ * Output layout is the one of RealDoubleFFT_Mixed.rfftf().
+ *
+ * Tables are immutable after construction, see FFTPlanCache.
+ */
+class RealDoubleFFT_Bluestein {
+  final int n;
+  final int m;                  // complex FFT length, power of 2
+  private final RealDoubleFFT_Radix2 cfft;   // real length 2m, used as complex FFT of length m
+  private final double[] chirp;   // w_k, interleaved, k = 0..n-1
+  private final double[] chirpFT; // FFT of conj(w) wrapped to length m, divided by m
+
+  RealDoubleFFT_Bluestein(int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("RealDoubleFFT_Bluestein: n must be positive");
+    }
+    this.n = n;
+    int mm = 1;
+    while (mm < 2 * n - 1) mm *= 2;
+    m = mm;
+    cfft = FFTPlanCache.getRadix2(2 * m);
+
+    chirp = new double[2 * n];
+    for (int k = 0; k < n; k++) {
+      // k^2 mod 2n keeps the angle small, so it stays accurate for large k
+      long k2 = ((long) k * k) % (2L * n);
+      double a = -Math.PI * k2 / n;
+      chirp[2 * k] = Math.cos(a);
+      chirp[2 * k + 1] = Math.sin(a);
+    }
+    double[] b = new double[2 * m];
+    b[0] = chirp[0];
+    b[1] = -chirp[1];
+    for (int k = 1; k < n; k++) {
+      b[2 * k] = b[2 * (m - k)] = chirp[2 * k];
+      b[2 * k + 1] = b[2 * (m - k) + 1] = -chirp[2 * k + 1];
+    }
+    chirpFT = new double[2 * m];
+    cfft.cfftf(b, chirpFT);
+    for (int i = 0; i < 2 * m; i++) {
+      chirpFT[i] /= m;
+    }
+  }
+
+  /**
+   * Forward transform of x[0..n-1] in place.
+   * @param wa work array of length at least 2*m, so is wb.
+   */
+  void rfftf(double[] x, double[] wa, double[] wb) {
+    if (n == 1) return;
+    final double[] w = chirp;
+    final double[] bf = chirpFT;
+    for (int k = 0; k < n; k++) {
+      wa[2 * k] = x[k] * w[2 * k];
+      wa[2 * k + 1] = x[k] * w[2 * k + 1];
+    }
+    for (int i = 2 * n; i < 2 * m; i++) {
+      wa[i] = 0;
+    }
+    cfft.cfftf(wa, wb);
+    // FFT(a) * FFT(b), conjugated so that a forward FFT gives the inverse
+    for (int i = 0; i < 2 * m; i += 2) {
+      double ar = wb[i], ai = wb[i + 1];
+      double br = bf[i], bi = bf[i + 1];
+      wa[i] = ar * br - ai * bi;
+      wa[i + 1] = -(ar * bi + ai * br);
+    }
+    cfft.cfftf(wa, wb);
+    // X_k = w_k * conj(wb_k), only k = 0..n/2 are needed
+    x[0] = w[0] * wb[0] + w[1] * wb[1];
+    for (int k = 1; 2 * k < n; k++) {
+      double cr = wb[2 * k], ci = -wb[2 * k + 1];
+      x[2 * k - 1] = w[2 * k] * cr - w[2 * k + 1] * ci;
+      x[2 * k] = w[2 * k] * ci + w[2 * k + 1] * cr;
+    }
+    if (n % 2 == 0) {
+      int k = n / 2;
+      double cr = wb[2 * k], ci = -wb[2 * k + 1];
+      x[n - 1] = w[2 * k] * cr - w[2 * k + 1] * ci;
+    }
+  }
+}
@@ -0,0 +1,325 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+/**
+ * Real FFT specialized for power-of-two lengths.
+ *
+ * The n-point real sequence is viewed as an n/2-point complex sequence
+ * (even samples as real part, odd samples as imaginary part), transformed by
+ * an iterative radix-2^2 complex FFT, then split into the spectrum of the real
+ * input. Output layout is exactly the one of RealDoubleFFT_Mixed.rfftf().
+ *
+ * All tables (bit-reversal permutation, butterfly twiddles and split twiddles)
+ * are computed once in the constructor and never modified afterwards, so one
+ * instance can be used by several threads as long as each passes its own
+ * work array.
+ */
+class RealDoubleFFT_Radix2 {
+  final int n;            // real length, power of 2
+  private final int m;    // complex length, n/2
+  private final int[] bitrev;      // bit-reversal permutation of 0..m-1
+  private final double[] twStage;  // radix-2^2 twiddles, 4 doubles per butterfly
+  private final double[] twSplit;  // cos, sin of 2*pi*k/n, k = 0..m/2
+
+  static boolean isPowerOfTwo(int n) {
+    return n > 0 && (n & (n - 1)) == 0;
+  }
+
+  RealDoubleFFT_Radix2(int n) {
+    if (!isPowerOfTwo(n)) {
+      throw new IllegalArgumentException("RealDoubleFFT_Radix2: n must be a power of 2");
+    }
+    this.n = n;
+    m = n / 2;
+
+    int log2m = 0;
+    while ((1 << log2m) < m) log2m++;
+    bitrev = new int[m];
+    for (int i = 0; i < m; i++) {
+      int r = 0;
+      for (int b = 0; b < log2m; b++) {
+        r |= ((i >> b) & 1) << (log2m - 1 - b);
+      }
+      bitrev[i] = r;
+    }
+
+    // Twiddles of each radix-2^2 pass, stored in the order they are used.
+    // A pass with quarter size h needs W_{2h}^j and W_{4h}^j for j = 0..h-1.
+    int len = 0;
+    for (int h = firstQuarter(); 4 * h <= m; h *= 4) len += 4 * h;
+    twStage = new double[len];
+    int p = 0;
+    for (int h = firstQuarter(); 4 * h <= m; h *= 4) {
+      for (int j = 0; j < h; j++) {
+        double a = -Math.PI * j / h;         // W_{2h}^j
+        twStage[p++] = Math.cos(a);
+        twStage[p++] = Math.sin(a);
+        twStage[p++] = Math.cos(a / 2);      // W_{4h}^j
+        twStage[p++] = Math.sin(a / 2);
+      }
+    }
+
+    twSplit = new double[2 * (m / 2 + 1)];
+    for (int k = 0; k <= m / 2; k++) {
+      double a = 2 * Math.PI * k / n;
+      twSplit[2 * k] = Math.cos(a);
+      twSplit[2 * k + 1] = Math.sin(a);
+    }
+  }
+
+  // Quarter size of the first radix-2^2 pass. When log2(m) is odd a plain
+  // radix-2 pass (no multiplication) is done first.
+  private int firstQuarter() {
+    int log2m = 0;
+    while ((1 << log2m) < m) log2m++;
+    return (log2m % 2 == 1) ? 2 : 1;
+  }
+
+  /**
+   * Forward transform of x[0..n-1] in place.
+   * @param ch work array of length at least n.
+   */
+  void rfftf(double[] x, double[] ch) {
+    rfftf(x, 0, n, 1, ch);
+  }
+
+  /**
+   * Forward transform of nFrames sequences, frame f being
+   * x[offset + f*stride .. offset + f*stride + n-1], each in place.
+   * All frames go through each butterfly pass before the next pass starts,
+   * so the twiddles of a pass are loaded once for the whole batch.
+   * @param ch work array of length at least n*nFrames.
+   */
+  void rfftf(double[] x, int offset, int stride, int nFrames, double[] ch) {
+    if (n == 1) return;
+    if (n == 2) {
+      for (int f = 0, o = offset; f < nFrames; f++, o += stride) {
+        double a = x[o], b = x[o + 1];
+        x[o] = a + b;
+        x[o + 1] = a - b;
+      }
+      return;
+    }
+    packedFFT(x, offset, stride, nFrames, ch);
+    for (int f = 0, o = offset; f < nFrames; f++, o += stride) {
+      splitToHalfComplex(ch, f * n, x, o);
+    }
+  }
+
+  /**
+   * Like rfftf(x, offset, stride, nFrames, ch), but instead of writing the
+   * spectra back to x, adds scale*|X_k|^2 of every frame to power[k], k = 0..n/2,
+   * with scale/4 for k = 0 and n/2. x is left unchanged. Needs n >= 4.
+   */
+  void rfftfPower(double[] x, int offset, int stride, int nFrames, double[] ch,
+                  double[] power, double scale) {
+    packedFFT(x, offset, stride, nFrames, ch);
+    for (int f = 0; f < nFrames; f++) {
+      splitToPower(ch, f * n, power, scale);
+    }
+  }
+
+  // ch = complex FFT of each frame viewed as n/2 complex samples, frame f at ch[f*n].
+  private void packedFFT(double[] x, int offset, int stride, int nFrames, double[] ch) {
+    // Bit-reversed gather of the packed complex sequences into ch.
+    for (int f = 0, o = offset; f < nFrames; f++, o += stride) {
+      int c0 = f * n;
+      for (int i = 0; i < m; i++) {
+        int j = o + 2 * bitrev[i];
+        ch[c0 + 2 * i] = x[j];
+        ch[c0 + 2 * i + 1] = x[j + 1];
+      }
+    }
+    complexButterflies(ch, n * nFrames);
+  }
+
+  /**
+   * Forward complex FFT of n/2 points, data interleaved as re, im.
+   * out = FFT(in), in is not modified; in and out must be different arrays.
+   */
+  void cfftf(double[] in, double[] out) {
+    if (m == 1) {
+      out[0] = in[0];
+      out[1] = in[1];
+      return;
+    }
+    for (int i = 0; i < m; i++) {
+      int j = bitrev[i];
+      out[2 * i] = in[2 * j];
+      out[2 * i + 1] = in[2 * j + 1];
+    }
+    complexButterflies(out, n);
+  }
+
+  /**
+   * Backward (unnormalized inverse) transform of r[0..n-1] in place, input in
+   * the layout produced by rfftf(). rfftf() followed by rfftb() multiplies by n.
+   * @param ch work array of length at least n.
+   */
+  void rfftb(double[] r, double[] ch) {
+    if (n == 1) return;
+    if (n == 2) {
+      double a = r[0], b = r[1];
+      r[0] = a + b;
+      r[1] = a - b;
+      return;
+    }
+    // Rebuild Z = FFT of the packed complex sequence, times 2, conjugated and
+    // stored bit-reversed, so the forward butterflies compute the inverse.
+    //   Z_k = (X_k + conj X_{m-k}) + i (X_k - conj X_{m-k}) W_n^{-k}
+    final double[] tw = twSplit;
+    double x0 = r[0], xm = r[n - 1];
+    ch[0] = x0 + xm;
+    ch[1] = -(x0 - xm);
+    for (int k = 1; k <= m / 2; k++) {
+      int kc = m - k;
+      double ar = r[2 * k - 1], ai = r[2 * k];    // X_k
+      double br = r[2 * kc - 1], bi = -r[2 * kc]; // conj X_{m-k}
+      double sr = ar + br, si = ai + bi;
+      double ur = ar - br, ui = ai - bi;
+      double cr = tw[2 * k], ci = tw[2 * k + 1];
+      double dr = ur * cr - ui * ci;
+      double di = ur * ci + ui * cr;
+      int p = 2 * bitrev[k];
+      ch[p] = sr - di;
+      ch[p + 1] = -(si + dr);
+      if (k != kc) {
+        p = 2 * bitrev[kc];
+        ch[p] = sr + di;
+        ch[p + 1] = -(dr - si);
+      }
+    }
+    complexButterflies(ch, n);
+    for (int i = 0; i < m; i++) {
+      r[2 * i] = ch[2 * i];
+      r[2 * i + 1] = -ch[2 * i + 1];
+    }
+  }
+
+  // In place iterative complex FFT (forward, exp(-i...)) of bit-reversed data.
+  // c[0..len-1] holds len/n consecutive transforms; groups never cross them.
+  private void complexButterflies(double[] c, int len) {
+    int h = firstQuarter();
+    if (h == 2) {
+      for (int i = 0; i < len; i += 4) {
+        double r0 = c[i], i0 = c[i + 1];
+        double r1 = c[i + 2], i1 = c[i + 3];
+        c[i] = r0 + r1;
+        c[i + 1] = i0 + i1;
+        c[i + 2] = r0 - r1;
+        c[i + 3] = i0 - i1;
+      }
+    }
+    int p0 = 0;
+    if (h == 1 && 4 <= m) {
+      // first radix-4 pass, all twiddles are trivial
+      for (int a0 = 0; a0 < len; a0 += 8) {
+        double x0r = c[a0] + c[a0 + 2], x0i = c[a0 + 1] + c[a0 + 3];
+        double x1r = c[a0] - c[a0 + 2], x1i = c[a0 + 1] - c[a0 + 3];
+        double x2r = c[a0 + 4] + c[a0 + 6], x2i = c[a0 + 5] + c[a0 + 7];
+        double x3r = c[a0 + 4] - c[a0 + 6], x3i = c[a0 + 5] - c[a0 + 7];
+        c[a0] = x0r + x2r;
+        c[a0 + 1] = x0i + x2i;
+        c[a0 + 4] = x0r - x2r;
+        c[a0 + 5] = x0i - x2i;
+        c[a0 + 2] = x1r + x3i;
+        c[a0 + 3] = x1i - x3r;
+        c[a0 + 6] = x1r - x3i;
+        c[a0 + 7] = x1i + x3r;
+      }
+      p0 = 4;
+      h = 4;
+    }
+    final double[] tw = twStage;
+    for (; 4 * h <= m; h *= 4) {
+      int step = 8 * h;    // 4h complex numbers per group
+      for (int b = 0; b < len; b += step) {
+        int p = p0;
+        for (int j = 0; j < h; j++, p += 4) {
+          double w1r = tw[p], w1i = tw[p + 1];
+          double w2r = tw[p + 2], w2i = tw[p + 3];
+          int a0 = b + 2 * j;
+          int a1 = a0 + 2 * h;
+          int a2 = a1 + 2 * h;
+          int a3 = a2 + 2 * h;
+          // first radix-2 stage, span h, twiddle W_{2h}^j
+          double tr = w1r * c[a1] - w1i * c[a1 + 1];
+          double ti = w1r * c[a1 + 1] + w1i * c[a1];
+          double x0r = c[a0] + tr, x0i = c[a0 + 1] + ti;
+          double x1r = c[a0] - tr, x1i = c[a0 + 1] - ti;
+          tr = w1r * c[a3] - w1i * c[a3 + 1];
+          ti = w1r * c[a3 + 1] + w1i * c[a3];
+          double x2r = c[a2] + tr, x2i = c[a2 + 1] + ti;
+          double x3r = c[a2] - tr, x3i = c[a2 + 1] - ti;
+          // second radix-2 stage, span 2h, twiddle W_{4h}^j and -i*W_{4h}^j
+          tr = w2r * x2r - w2i * x2i;
+          ti = w2r * x2i + w2i * x2r;
+          c[a0] = x0r + tr;
+          c[a0 + 1] = x0i + ti;
+          c[a2] = x0r - tr;
+          c[a2 + 1] = x0i - ti;
+          tr = w2r * x3i + w2i * x3r;     // -i * W * x3
+          ti = -(w2r * x3r - w2i * x3i);
+          c[a1] = x1r + tr;
+          c[a1 + 1] = x1i + ti;
+          c[a3] = x1r - tr;
+          c[a3 + 1] = x1i - ti;
+        }
+      }
+      p0 += 4 * h;
+    }
+  }
+
+  // Z = FFT of packed complex sequence (in c), write X = FFT of the real
+  // sequence into r, using fftpack's half-complex layout:
+  //   r[0] = X_0, r[2k-1] = Re X_k, r[2k] = Im X_k, r[n-1] = X_{n/2}.
+  private void splitToHalfComplex(final double[] c, int c0, double[] r, int r0) {
+    final double[] tw = twSplit;
+    r[r0] = c[c0] + c[c0 + 1];
+    r[r0 + n - 1] = c[c0] - c[c0 + 1];
+    for (int k = 1; k <= m / 2; k++) {
+      int kc = m - k;
+      double zr = c[c0 + 2 * k], zi = c[c0 + 2 * k + 1];
+      double yr = c[c0 + 2 * kc], yi = c[c0 + 2 * kc + 1];
+      // E = (Z_k + conj Z_{m-k})/2,  O = (Z_k - conj Z_{m-k})/(2i)
+      double er = 0.5 * (zr + yr), ei = 0.5 * (zi - yi);
+      double or = 0.5 * (zi + yi), oi = -0.5 * (zr - yr);
+      // X_k = E + W_n^k O, X_{m-k} = conj(E) - conj(W_n^k O)
+      double cr = tw[2 * k], ci = -tw[2 * k + 1];
+      double tr = cr * or - ci * oi;
+      double ti = cr * oi + ci * or;
+      r[r0 + 2 * k - 1] = er + tr;
+      r[r0 + 2 * k] = ei + ti;
+      if (k != kc) {
+        r[r0 + 2 * kc - 1] = er - tr;
+        r[r0 + 2 * kc] = ti - ei;
+      }
+    }
+  }
+
+  // Same split as splitToHalfComplex(), but accumulates the scaled squared
+  // magnitude of X_k into p[k] instead of storing X_k.
+  private void splitToPower(final double[] c, int c0, double[] p, double scale) {
+    final double[] tw = twSplit;
+    double s4 = scale / 4;
+    double x0 = c[c0] + c[c0 + 1];
+    double xm = c[c0] - c[c0 + 1];
+    p[0] += x0 * x0 * s4;
+    p[m] += xm * xm * s4;
+    for (int k = 1; k <= m / 2; k++) {
+      int kc = m - k;
+      double zr = c[c0 + 2 * k], zi = c[c0 + 2 * k + 1];
+      double yr = c[c0 + 2 * kc], yi = c[c0 + 2 * kc + 1];
+      double er = 0.5 * (zr + yr), ei = 0.5 * (zi - yi);
+      double or = 0.5 * (zi + yi), oi = -0.5 * (zr - yr);
+      double cr = tw[2 * k], ci = -tw[2 * k + 1];
+      double tr = cr * or - ci * oi;
+      double ti = cr * oi + ci * or;
+      double ar = er + tr, ai = ei + ti;
+      p[k] += (ar * ar + ai * ai) * scale;
+      if (k != kc) {
+        double br = er - tr, bi = ti - ei;
+        p[kc] += (br * br + bi * bi) * scale;
+      }
+    }
+  }
+}
@@ -77,6 +77,9 @@ public class AnalyzerActivity extends Activity
     double dtRMSFromFT = 0;
     double maxAmpDB;
     double maxAmpFreq;
+    int maxAmpLabel = R.string.text_peak;  // text_transfer_peak when maxAmpFreq is the peak of |H|
+    double pitchFreq = Double.NaN;     // from PitchTracker, NaN if unvoiced or not tracking
+    double pitchDB;
     double[] viewRangeArray = null;
 
     private boolean isMeasure = false;
@@ -226,7 +229,7 @@ public class AnalyzerActivity extends Activity
         }
         double[] freqTick = new double[_analyzerParam.fftLen/2 + 1];
         for (int i = 0; i < freqTick.length; i++) {
-            freqTick[i] = (double)i / _analyzerParam.fftLen * _analyzerParam.sampleRate;
+            freqTick[i] = (double)i / _analyzerParam.fftLen * _analyzerParam.analysisRate();
         }
         _analyzerParam.micGainDB = AnalyzerUtil.interpLinear(_calibLoad.freq, _calibLoad.gain, freqTick);
         _analyzerParam.calibName = _calibLoad.name;
@@ -339,7 +342,7 @@ public class AnalyzerActivity extends Activity
                 analyzerViews.popupMenuAverage.dismiss();
                 analyzerParam.nFFTAverage = Integer.parseInt(selectedItemTag);
                 if (analyzerViews.graphView != null) {
-                    analyzerViews.graphView.setTimeMultiplier(analyzerParam.nFFTAverage);
+                    analyzerViews.graphView.setTimeMultiplier(analyzerParam.framesPerUpdate());
                 }
                 b_need_restart_audio = false;
                 editor.putInt("button_average", analyzerParam.nFFTAverage);
@@ -404,6 +407,36 @@ public class AnalyzerActivity extends Activity
                 Double.toString(6.0)));
         analyzerParam.overlapPercent = Double.parseDouble(sharedPref.getString("fft_overlap_percent", "50.0"));
         analyzerParam.hopLen = (int)(analyzerParam.fftLen*(1 - analyzerParam.overlapPercent/100) + 0.5);
+        analyzerParam.multiResolution = sharedPref.getBoolean("fftMultiResolution", false);
+        analyzerParam.constantQ = sharedPref.getBoolean("spectrogramConstantQ", false);
+        analyzerParam.zoomFFT = sharedPref.getBoolean("fftZoom", false);
+        analyzerParam.decimateFreqMax = Double.parseDouble(sharedPref.getString("analysisBandwidth", "0"));
+        analyzerParam.lowCutFreq = Double.parseDouble(sharedPref.getString("lowCut", "0"));
+        try {
+            analyzerParam.averageMode = STFT.AverageMode.valueOf(sharedPref.getString("spectrumAverageMode", "BLOCK"));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "LoadPreferences(): unknown spectrumAverageMode.");
+            analyzerParam.averageMode = STFT.AverageMode.BLOCK;
+        }
+        analyzerParam.nPeakMarkers = Integer.parseInt(sharedPref.getString("peakMarkers", "0"));
+        analyzerParam.toneFreqs = AnalyzerUtil.parseDoubleList(sharedPref.getString("toneFrequencies", ""));
+        analyzerParam.pitchTracking = sharedPref.getBoolean("pitchTracker", false);
+        analyzerParam.octaveFraction = Integer.parseInt(sharedPref.getString("octaveBands", "0"));
+        analyzerParam.smoothingFraction = Integer.parseInt(sharedPref.getString("spectrumSmoothing", "0"));
+        String rmsWeighting = sharedPref.getString("rmsWeighting", "FFT");
+        try {
+            analyzerParam.rmsWeighting = rmsWeighting.equals("FFT") ? null : WeightingFilter.Weighting.valueOf(rmsWeighting);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "LoadPreferences(): unknown rmsWeighting.");
+            analyzerParam.rmsWeighting = null;
+        }
+        String transfer = sharedPref.getString("transferFunction", "Off");
+        try {
+            analyzerParam.transfer = transfer.equals("Off") ? null : CrossSpectrum.Estimator.valueOf(transfer);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "LoadPreferences(): unknown transferFunction.");
+            analyzerParam.transfer = null;
+        }
 
         // Settings of graph view
         // spectrum
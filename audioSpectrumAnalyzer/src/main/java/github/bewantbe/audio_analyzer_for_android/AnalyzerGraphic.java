@@ -112,9 +112,9 @@ public class AnalyzerGraphic extends View {
     AnalyzerParameters analyzerParamCache;
 
     void setupAxes(AnalyzerParameters analyzerParam) {
-        int sampleRate       = analyzerParam.sampleRate;
+        int sampleRate       = analyzerParam.analysisRate();
         int fftLen           = analyzerParam.fftLen;
-        int nAve             = analyzerParam.nFFTAverage;
+        int nAve             = analyzerParam.framesPerUpdate();
         double timeDurationE = analyzerParam.spectrogramDuration;
 
         freq_lower_bound_for_log = (double)sampleRate/fftLen;
@@ -376,7 +376,7 @@ public class AnalyzerGraphic extends View {
 
     // All FFT data will enter this view through this interface
     // Will be called in another thread (SamplingLoop)
-    public void saveSpectrum(double[] db) {
+    public void saveSpectrum(double[] db, double[] constantQDB) {
         synchronized (savedDBSpectrum) {  // TODO: need lock on savedDBSpectrum, but how?
             if (savedDBSpectrum == null || savedDBSpectrum.length != db.length) {
                 savedDBSpectrum = new double[db.length];
@@ -385,10 +385,39 @@ public class AnalyzerGraphic extends View {
         }
         // TODO: Run on another thread? Lock on data ? Or use CompletionService?
         if (showMode == PlotMode.SPECTROGRAM) {
-            spectrogramPlot.saveRowSpectrumAsColor(savedDBSpectrum);
+            spectrogramPlot.saveRowSpectrumAsColor(savedDBSpectrum, constantQDB);
         }
     }
 
+    // Zoom FFT spectrum over the spectrum plot, db == null to hide. Called from SamplingLoop.
+    void saveZoomSpectrum(double[] db, double[] freqs) {
+        spectrumPlot.setZoomSpectrum(db, freqs);
+    }
+
+    void saveZoomLabel(String label) {
+        spectrumPlot.setZoomLabel(label);
+    }
+
+    // PeakDetector markers on the spectrum plot, n == 0 to hide. Called from SamplingLoop.
+    void savePeakMarkers(int n, double[] freqs, double[] db, int[] harmonic) {
+        spectrumPlot.setPeakMarkers(n, freqs, db, harmonic);
+    }
+
+    // OctaveBands bars on the spectrum plot, n == 0 to hide. Called from SamplingLoop.
+    void saveOctaveBands(int n, double[] fLow, double[] fHigh, double[] db) {
+        spectrumPlot.setOctaveBands(n, fLow, fHigh, db);
+    }
+
+    // CrossSpectrum coherence on the spectrum plot, null to hide. Called from SamplingLoop.
+    void saveCoherence(double[] coh) {
+        spectrumPlot.setCoherence(coh);
+    }
+
+    // ToneTracker markers on the spectrum plot, freqs == null to hide. Called from SamplingLoop.
+    void saveToneMarkers(double[] freqs, double[] db, double[] phase) {
+        spectrumPlot.setToneMarkers(freqs, db, phase);
+    }
+
     void setSpectrumDBLowerBound(double b) {
         spectrumPlot.axisY.vUpperBound = b;
     }
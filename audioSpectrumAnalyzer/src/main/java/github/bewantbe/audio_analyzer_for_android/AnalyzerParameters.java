@@ -26,13 +26,27 @@ import android.util.Log;
 class AnalyzerParameters {
     final int RECORDER_AGC_OFF = MediaRecorder.AudioSource.VOICE_RECOGNITION;
     int audioSourceId = RECORDER_AGC_OFF;
-    int sampleRate = 16000;
+    int sampleRate = 16000;            // of the recorder, see analysisRate()
     int fftLen = 2048;
     int hopLen = 1024;
     double overlapPercent = 50;  // = (1 - hopLen/fftLen) * 100%
     String wndFuncName;
     int nFFTAverage = 2;
     boolean isAWeighting = false;
+    boolean parallelSTFT = false;      // STFT frames on worker threads, see STFT.setParallel(). No setting until measured on multi-core
+    boolean multiResolution = false;   // shorter FFTs for higher frequencies, see MultiResolutionSTFT
+    boolean constantQ = false;         // log axis spectrogram from ConstantQTransform
+    boolean zoomFFT = false;           // high resolution spectrum of the visible band, see ZoomFFT
+    double decimateFreqMax = 0;        // highest frequency of interest, 0 for the full band. See Decimator
+    double lowCutFreq = 0;             // FIR high-pass in front of the analysers, see FFTConvolver.highPass(). 0 for none
+    STFT.AverageMode averageMode = STFT.AverageMode.BLOCK;  // how nFFTAverage frames are averaged
+    int nPeakMarkers = 0;              // peaks marked on the spectrum, see PeakDetector
+    double[] toneFreqs = null;         // tracked by ToneTracker, null for none
+    boolean pitchTracking = false;     // pitch from PitchTracker in the peak label
+    int octaveFraction = 0;            // 1/octaveFraction octave band bars, see OctaveBands. 0 for none
+    int smoothingFraction = 0;         // 1/smoothingFraction octave smoothing of the spectrum, see SpectrumSmoother. 0 for none
+    CrossSpectrum.Estimator transfer = null;  // stereo capture, spectrum view shows |H| of right / left. null for mono
+    WeightingFilter.Weighting rmsWeighting = null;  // RMS label from WeightingFilter, null for RMS of the spectrum
     final int BYTE_OF_SAMPLE = 2;
     final double SAMPLE_VALUE_MAX = 32767.0;   // Maximum signal value
     double spectrogramDuration = 4.0;
@@ -70,4 +84,28 @@ class AnalyzerParameters {
     String getAudioSourceName() {
         return getAudioSourceNameFromId(audioSourceId);
     }
+
+    // sampleRate / analysisRate()
+    int getDecimation() {
+        return Decimator.factorFor(sampleRate, decimateFreqMax);
+    }
+
+    // Sample rate of the data given to STFT and the other analysers, after the Decimator.
+    int analysisRate() {
+        return sampleRate / getDecimation();
+    }
+
+    // Number of STFT frames per spectrum update, i.e. per spectrogram row.
+    int framesPerUpdate() {
+        return averageMode == STFT.AverageMode.BLOCK ? nFFTAverage : 1;
+    }
+
+    // Hops per AudioRecord read. At 75% overlap or more, several hops, up to half a frame,
+    // so that STFT transforms them in one batch. The added delay is less than the frame length.
+    int hopsPerRead() {
+        if (hopLen * 4 > fftLen) {
+            return 1;
+        }
+        return Math.max(1, Math.min(fftLen / (2 * hopLen), STFT.maxBatchFrames(fftLen)));
+    }
 }
@@ -26,6 +26,7 @@ import android.util.Log;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 
@@ -166,6 +167,26 @@ class AnalyzerUtil {
         }
     }
 
+    // "50, 100 150" -> {50, 100, 150}. Entries that are not numbers are skipped. null if none.
+    static double[] parseDoubleList(String st) {
+        if (st == null) {
+            return null;
+        }
+        String[] items = st.trim().split("[,;\\s]+");
+        double[] v = new double[items.length];
+        int n = 0;
+        for (String item : items) {
+            if (item.length() == 0) continue;
+            double d = parseDouble(item);
+            if (Double.isNaN(d)) {
+                Log.w(TAG, "parseDoubleList(): \"" + item + "\" is not a number.");
+                continue;
+            }
+            v[n++] = d;
+        }
+        return n == 0 ? null : Arrays.copyOf(v, n);
+    }
+
     // Thanks http://stackoverflow.com/questions/16319237/cant-put-double-sharedpreferences
     static SharedPreferences.Editor putDouble(final SharedPreferences.Editor edit, final String key, final double value) {
         return edit.putLong(key, Double.doubleToRawLongBits(value));
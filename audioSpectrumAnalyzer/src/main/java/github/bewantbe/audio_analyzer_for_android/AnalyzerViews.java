@@ -50,6 +50,7 @@ import android.widget.Toast;
 class AnalyzerViews {
     final String TAG = "AnalyzerViews";
     private final AnalyzerActivity activity;
+    private int zoomFillPercent = 100;
     final AnalyzerGraphic graphView;
 
     private float DPRatio;
@@ -64,6 +65,7 @@ class AnalyzerViews {
     private char[] textRMSChar;   // for text in R.id.textview_RMS
     private char[] textCurChar;   // for text in R.id.textview_cur
     private char[] textPeakChar;  // for text in R.id.textview_peak
+    private volatile WeightingFilter.Weighting rmsWeighting = null;
     private char[] textRecChar;   // for text in R.id.textview_rec
 
     PopupWindow popupMenuSampleRate;
@@ -133,8 +135,9 @@ class AnalyzerViews {
     }
 
     // Will be called by SamplingLoop (in another thread)
-    void update(final double[] spectrumDBcopy) {
-        graphView.saveSpectrum(spectrumDBcopy);
+    // constantQDB: spectrum of ConstantQTransform for the log axis spectrogram, or null
+    void update(final double[] spectrumDBcopy, final double[] constantQDB) {
+        graphView.saveSpectrum(spectrumDBcopy, constantQDB);
         activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -144,6 +147,55 @@ class AnalyzerViews {
         });
     }
 
+    // Will be called by SamplingLoop, before update(). See ZoomFFT, db == null hides it.
+    void updateZoom(final double[] db, final double[] freqs) {
+        graphView.saveZoomSpectrum(db, freqs);
+    }
+
+    // Will be called by SamplingLoop. fill < 1 labels the zoom FFT as still filling its first frame.
+    void updateZoomFill(double fill) {
+        int percent = (int) (100 * fill);
+        if (percent != zoomFillPercent) {
+            zoomFillPercent = percent;
+            graphView.saveZoomLabel(percent < 100 ? activity.getString(R.string.zoom_fft_filling, percent) : null);
+        }
+    }
+
+    // Will be called by SamplingLoop, before update(). See PeakDetector, n == 0 hides them.
+    void updatePeaks(int n, final double[] freqs, final double[] db, final int[] harmonic) {
+        graphView.savePeakMarkers(n, freqs, db, harmonic);
+    }
+
+    // Will be called by SamplingLoop, before update(). See OctaveBands, n == 0 hides them.
+    void updateOctaveBands(int n, final double[] fLow, final double[] fHigh, final double[] db) {
+        graphView.saveOctaveBands(n, fLow, fHigh, db);
+    }
+
+    // Will be called by SamplingLoop, before update(). See CrossSpectrum, null hides it.
+    void updateCoherence(final double[] coh) {
+        graphView.saveCoherence(coh);
+    }
+
+    // Will be called by SamplingLoop, before update(). See ToneTracker, freqs == null hides them.
+    void updateTones(final double[] freqs, final double[] db, final double[] phase) {
+        graphView.saveToneMarkers(freqs, db, phase);
+    }
+
+    // Will be called by SamplingLoop, the weighting of the RMS label, null for RMS of the spectrum.
+    void setRMSWeighting(WeightingFilter.Weighting w) {
+        rmsWeighting = w;
+    }
+
+    // Will be called by SamplingLoop when PitchTracker has a new estimate, see activity.pitchFreq.
+    void updatePitch() {
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                invalidateGraphView(VIEW_MASK_textview_peak);
+            }
+        });
+    }
+
     private double wavSecOld = 0;      // used to reduce frame rate
     void updateRec(double wavSec) {
         if (wavSecOld > wavSec) {
@@ -394,7 +446,8 @@ class AnalyzerViews {
 
     private void refreshRMSLabel(double dtRMSFromFT) {
         textRMS.setLength(0);
-        textRMS.append("RMS:dB \n");
+        WeightingFilter.Weighting w = rmsWeighting;
+        textRMS.append(w == null ? "RMS:dB \n" : "RMS:dB" + w + "\n");
         SBNumFormat.fillInNumFixedWidth(textRMS, 20*Math.log10(dtRMSFromFT), 3, 1);
         textRMS.getChars(0, Math.min(textRMS.length(), textRMSChar.length), textRMSChar, 0);
 
@@ -403,9 +456,9 @@ class AnalyzerViews {
         tv.invalidate();
     }
 
-    private void refreshPeakLabel(double maxAmpFreq, double maxAmpDB) {
+    private void refreshPeakLabel(int prefixId, double maxAmpFreq, double maxAmpDB) {
         textPeak.setLength(0);
-        textPeak.append(activity.getString(R.string.text_peak));
+        textPeak.append(activity.getString(prefixId));
         SBNumFormat.fillInNumFixedWidthPositive(textPeak, maxAmpFreq, 5, 1);
         textPeak.append("Hz(");
         AnalyzerUtil.freq2Cent(textPeak, maxAmpFreq, " ");
@@ -473,7 +526,11 @@ class AnalyzerViews {
                 refreshRMSLabel(activity.dtRMSFromFT);
             // peak frequency
             if ((viewMask & VIEW_MASK_textview_peak) != 0)
-                refreshPeakLabel(activity.maxAmpFreq, activity.maxAmpDB);
+                if (Double.isNaN(activity.pitchFreq)) {
+                    refreshPeakLabel(activity.maxAmpLabel, activity.maxAmpFreq, activity.maxAmpDB);
+                } else {
+                    refreshPeakLabel(R.string.text_pitch, activity.pitchFreq, activity.pitchDB);
+                }
             if ((viewMask & VIEW_MASK_CursorLabel) != 0)
                 refreshCursorLabel();
             if ((viewMask & VIEW_MASK_RecTimeLable) != 0 && activity.samplingThread != null)
@@ -0,0 +1,313 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.ceil;
+import static java.lang.Math.cos;
+import static java.lang.Math.log;
+import static java.lang.Math.log10;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+
+/**
+ * Constant-Q transform by sparse spectral kernels (Brown and Puckette, 1992).
+ *
+ * Bin k has centre frequency fMin * 2^(k/binsPerOctave) and a Hann window of
+ * Q periods, Q = 1/(2^(1/binsPerOctave) - 1), at most fftLen long. All bins are taken
+ * from the frame spectra of an STFT (see STFT.setFrameListener() and input), so no FFT
+ * is done here: c_k = sum_j X_j conj(K_kj) / fftLen, where K_k is the DFT of the Hann
+ * windowed complex exponential of bin k. K_k is concentrated around its centre frequency,
+ * so only the entries above KERNEL_THRESHOLD of its peak are kept. That is a few to a few
+ * hundred per bin instead of fftLen/2.
+ *
+ * X is the spectrum of the frame times the STFT window w, so the effective window of
+ * bin k is w times its Hann window, and the kernels are normalized by the sum of that
+ * product. The frequency corrections of the STFT (calibration, A-weighting) are applied
+ * to X as amplitude gains. Bins whose Q periods exceed fftLen get a window of fftLen,
+ * so below Q * sampleRate / fftLen the resolution is that of the STFT.
+ *
+ * Output is the power of each bin in dB with the same scale as STFT (a full scale sine
+ * is 0 dB), averaged over the frames since the last getSpectrumAmpDB().
+ */
+class ConstantQTransform {
+    private static final String TAG = "ConstantQTransform:";
+    static final double DEFAULT_F_MIN = 55.0;          // A1
+    static final int DEFAULT_BINS_PER_OCTAVE = 24;
+    static final double KERNEL_THRESHOLD = 0.0054;     // relative to the peak of each kernel, about -45 dB
+    static final int MAX_KERNELS = 4;
+    private static final double[] HANN_COEF = {0.5, -0.25, -0.25};  // of e^0, e^{i d m}, e^{-i d m}
+
+    /** Sparse kernels, immutable after construction, shared through the cache. */
+    static final class Kernel {
+        final int sampleRate, binsPerOctave, nBins, fftLen;
+        final double fMin;
+        final double[] freqs;     // centre frequencies
+        final int[] start;        // kernel k is idx[start[k] .. start[k+1]-1]
+        final int[] idx;          // FFT bin, 0 <= idx <= fftLen/2
+        final double[] re, im;    // conj(K) / fftLen
+
+        /** Kernels for frames of fftLen samples multiplied by wnd (the STFT window). */
+        Kernel(int sampleRate, double fMin, double fMax, int binsPerOctave, double[] wnd) {
+            if (fMin <= 0 || fMax <= fMin || binsPerOctave <= 0 || wnd.length < 2) {
+                throw new IllegalArgumentException(TAG + " need 0 < fMin < fMax, binsPerOctave > 0 and fftLen >= 2.");
+            }
+            this.sampleRate = sampleRate;
+            this.fMin = fMin;
+            this.binsPerOctave = binsPerOctave;
+            double q = 1 / (pow(2, 1.0 / binsPerOctave) - 1);
+            freqs = binFreqs(fMin, fMax, binsPerOctave);
+            nBins = freqs.length;
+            fftLen = wnd.length;
+
+            // Entries above threshold lie within a few main lobe widths (fftLen/len bins) of the centre.
+            int cap = 0;
+            for (int k = 0; k < nBins; k++) {
+                cap += 2 * (int) ceil(16.0 * fftLen / windowLen(q, k)) + 1;
+            }
+            int[] idx0 = new int[cap];
+            double[] re0 = new double[cap], im0 = new double[cap];
+            double[] kr = new double[fftLen/2 + 1], ki = new double[fftLen/2 + 1];
+            start = new int[nBins + 1];
+            int nnz = 0;
+            for (int k = 0; k < nBins; k++) {
+                int len = windowLen(q, k);
+                double omega = 2 * PI * freqs[k] / sampleRate;
+                int c = (int) round(freqs[k] * fftLen / sampleRate);
+                int half = (int) ceil(16.0 * fftLen / len);
+                int j0 = Math.max(0, c - half), j1 = Math.min(fftLen/2, c + half);
+                double norm = windowSum(wnd, len);
+                double peak = 0;
+                for (int j = j0; j <= j1; j++) {
+                    hannToneDFT(j, len, omega, norm, kr, ki);
+                    peak = Math.max(peak, kr[j]*kr[j] + ki[j]*ki[j]);
+                }
+                double thr = KERNEL_THRESHOLD * KERNEL_THRESHOLD * peak;
+                start[k] = nnz;
+                for (int j = j0; j <= j1; j++) {
+                    if (kr[j]*kr[j] + ki[j]*ki[j] >= thr) {
+                        idx0[nnz] = j;
+                        re0[nnz] =  kr[j] / fftLen;
+                        im0[nnz] = -ki[j] / fftLen;
+                        nnz++;
+                    }
+                }
+            }
+            start[nBins] = nnz;
+            idx = Arrays.copyOf(idx0, nnz);
+            re  = Arrays.copyOf(re0, nnz);
+            im  = Arrays.copyOf(im0, nnz);
+        }
+
+        private int windowLen(double q, int k) {
+            return (int) Math.min(fftLen, round(q * sampleRate / freqs[k]));
+        }
+
+        // sum of wnd[s+m] h[m], h the periodic Hann window of length len, s = (fftLen - len)/2
+        private double windowSum(double[] wnd, int len) {
+            int s = (fftLen - len) / 2;
+            double sum = 0;
+            for (int m = 0; m < len; m++) {
+                sum += wnd[s + m] * (0.5 - 0.5 * cos(2 * PI * m / len));
+            }
+            return sum;
+        }
+
+        /**
+         * DFT at bin j of t[s+m] = h[m] e^{i omega m} / norm, m = 0..len-1, h the periodic
+         * Hann window of length len centred in the frame, s = (fftLen - len)/2.
+         * The Hann window is three complex exponentials, so this is three Dirichlet kernels.
+         */
+        private void hannToneDFT(int j, int len, double omega, double norm, double[] kr, double[] ki) {
+            double theta = 2 * PI * j / fftLen - omega;
+            double d = 2 * PI / len;
+            double sr = 0, si = 0;
+            double[] th = {theta, theta - d, theta + d};
+            for (int t = 0; t < 3; t++) {
+                // sum_{m<len} e^{-i th m} = e^{-i th (len-1)/2} sin(th len/2) / sin(th/2)
+                double h = sin(th[t] / 2);
+                double mag = Math.abs(h) < 1e-12 ? len : sin(th[t] * len / 2) / h;
+                double ph = -th[t] * (len - 1) / 2;
+                sr += HANN_COEF[t] * mag * cos(ph);
+                si += HANN_COEF[t] * mag * sin(ph);
+            }
+            // frame offset and normalization
+            double ph = -2 * PI * j * (double)((fftLen - len) / 2) / fftLen;
+            double cr = cos(ph), ci = sin(ph);
+            kr[j] = (sr * cr - si * ci) / norm;
+            ki[j] = (sr * ci + si * cr) / norm;
+        }
+
+        int nonZeros() {
+            return idx.length;
+        }
+    }
+
+    /** Centre frequencies fMin * 2^(k/binsPerOctave) up to fMax. */
+    static double[] binFreqs(double fMin, double fMax, int binsPerOctave) {
+        int nBins = (int) Math.floor(binsPerOctave * log(fMax / fMin) / log(2)) + 1;
+        double[] freqs = new double[nBins];
+        for (int k = 0; k < nBins; k++) {
+            freqs[k] = fMin * pow(2, (double) k / binsPerOctave);
+        }
+        return freqs;
+    }
+
+    /** Bins of the default configuration, cheap (no kernel is built). */
+    static double[] defaultBinFreqs(int sampleRate) {
+        return binFreqs(DEFAULT_F_MIN, defaultFMax(sampleRate), DEFAULT_BINS_PER_OCTAVE);
+    }
+
+    // highest bin whose upper edge is at most Nyquist
+    private static double defaultFMax(int sampleRate) {
+        return sampleRate / 2.0 / pow(2, 0.5 / DEFAULT_BINS_PER_OCTAVE);
+    }
+
+    private static final LinkedHashMap<String, Kernel> kernels =
+            new LinkedHashMap<String, Kernel>(MAX_KERNELS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Kernel> eldest) {
+                    return size() > MAX_KERNELS;
+                }
+            };
+
+    static synchronized Kernel getKernel(int sampleRate, double fMin, double fMax, int binsPerOctave,
+                                         int fftLen, String wndName) {
+        String key = sampleRate + "/" + fMin + "/" + fMax + "/" + binsPerOctave + "/" + fftLen + "/" + wndName;
+        Kernel k = kernels.get(key);
+        if (k == null) {
+            k = new Kernel(sampleRate, fMin, fMax, binsPerOctave, WindowFunction.get(wndName, fftLen).wnd);
+            kernels.put(key, k);
+        }
+        return k;
+    }
+
+    private final Kernel kernel;
+    private final SpectralCorrection correction;
+    private double[] gain;                      // correction.getGain() that re, im were made for
+    private final double[] re, im;              // kernel times the amplitude correction of its FFT bin
+    private final double[] powerCum;
+    private final double[] spectrumAmpOutDB;
+    private int nAnalysed = 0;
+
+    /** Feed with STFT.setFrameListener(). Called on the thread of STFT.feedData(). */
+    final STFT.FrameListener input = new STFT.FrameListener() {
+        @Override
+        public void onFrame(double[] spectrum, int offset) {
+            analyseFrame(spectrum, offset);
+        }
+    };
+
+    /** Default bins, for frames of the STFT made from analyzerParam whose corrections are given. */
+    ConstantQTransform(AnalyzerParameters analyzerParam, SpectralCorrection correction) {
+        this(analyzerParam.analysisRate(), analyzerParam.fftLen, analyzerParam.wndFuncName, DEFAULT_F_MIN,
+                defaultFMax(analyzerParam.analysisRate()), DEFAULT_BINS_PER_OCTAVE, correction);
+    }
+
+    /**
+     * @param fftLen     frame length of the STFT that feeds input
+     * @param wndName    its window, see WindowFunction
+     * @param correction its corrections (STFT.getCorrection()), followed when they change, or null
+     */
+    ConstantQTransform(int sampleRate, int fftLen, String wndName, double fMin, double fMax, int binsPerOctave,
+                       SpectralCorrection correction) {
+        if (correction != null && correction.nBins() != fftLen / 2 + 1) {
+            throw new IllegalArgumentException(TAG + " correction is not on the grid of fftLen.");
+        }
+        kernel = getKernel(sampleRate, fMin, fMax, binsPerOctave, fftLen, wndName);
+        this.correction = correction;
+        re = kernel.re.clone();
+        im = kernel.im.clone();
+        powerCum = new double[kernel.nBins];
+        spectrumAmpOutDB = new double[kernel.nBins];
+        Arrays.fill(spectrumAmpOutDB, log10(0));
+    }
+
+    int nBins() {
+        return kernel.nBins;
+    }
+
+    /** Centre frequency of each bin, log spaced. Do not modify. */
+    double[] getFreqs() {
+        return kernel.freqs;
+    }
+
+    int getBinsPerOctave() {
+        return kernel.binsPerOctave;
+    }
+
+    int getFftLen() {
+        return kernel.fftLen;
+    }
+
+    // The gain is swapped in whole when a stage changes, so a new array means new corrections.
+    private void followCorrection() {
+        double[] g = correction.getGain();
+        if (g == gain) {
+            return;
+        }
+        gain = g;
+        final int[] idx = kernel.idx;
+        for (int p = 0; p < idx.length; p++) {
+            double a = sqrt(g[idx[p]]);
+            re[p] = kernel.re[p] * a;
+            im[p] = kernel.im[p] * a;
+        }
+    }
+
+    private void analyseFrame(double[] frame, int o) {
+        if (correction != null) {
+            followCorrection();
+        }
+        final int n = kernel.fftLen;
+        final int[] idx = kernel.idx;
+        final double[] kr = re, ki = im;
+        for (int k = 0; k < kernel.nBins; k++) {
+            double cr = 0, ci = 0;
+            for (int p = kernel.start[k]; p < kernel.start[k+1]; p++) {
+                int j = idx[p];
+                double xr, xi;
+                if (j == 0) {
+                    xr = frame[o];
+                    xi = 0;
+                } else if (2*j == n) {
+                    xr = frame[o+n-1];
+                    xi = 0;
+                } else {
+                    xr = frame[o+2*j-1];
+                    xi = frame[o+2*j];
+                }
+                cr += xr * kr[p] - xi * ki[p];
+                ci += xr * ki[p] + xi * kr[p];
+            }
+            powerCum[k] += 4 * (cr*cr + ci*ci);  // |2c|^2: sine amplitude squared
+        }
+        nAnalysed++;
+    }
+
+    int nElemSpectrumAmp() {
+        return nAnalysed;
+    }
+
+    /** Mean power of frames since last call, in dB. */
+    double[] getSpectrumAmpDB() {
+        if (nAnalysed != 0) {
+            for (int k = 0; k < powerCum.length; k++) {
+                spectrumAmpOutDB[k] = 10.0 * log10(powerCum[k] / nAnalysed);
+            }
+            Arrays.fill(powerCum, 0.0);
+            nAnalysed = 0;
+        }
+        return spectrumAmpOutDB;
+    }
+
+    void clear() {
+        Arrays.fill(powerCum, 0.0);
+        Arrays.fill(spectrumAmpOutDB, log10(0));
+        nAnalysed = 0;
+    }
+}
@@ -0,0 +1,247 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import static java.lang.Math.log10;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+
+/**
+ * Averaged auto and cross spectral densities of two channels, fed with the complex frames
+ * of two STFTs with the same fftLen and hopLen (see STFT.setFrameListener()), so no FFT
+ * is done here.
+ *
+ * For frame spectra X (inputX) and Y (inputY), bin k accumulates
+ *   Gxx = |X|^2,  Gyy = |Y|^2,  Gxy = conj(X) Y,
+ * scaled as the STFT power (a full scale sine is 1), and averaged the same way as
+ * STFT.setAverage(). Frames are paired in order: a frame that arrives before its partner
+ * is copied into a pooled buffer, the partner is used in place. So feeding the two STFTs
+ * one after the other with the same chunks allocates nothing once the pool is warm.
+ */
+class CrossSpectrum {
+    private static final String TAG = "CrossSpectrum:";
+    static final int MAX_PENDING = 64;   // unpaired frames kept per channel
+
+    /**
+     * Estimators of the transfer function H = Y / X. H1 = Gxy / Gxx is not biased by noise
+     * on Y, H2 = Gyy / Gyx not by noise on X. They have the same phase.
+     */
+    enum Estimator { H1, H2 }
+
+    private final int fftLen;
+    private final int nBins;
+    // products of one frame pair, and their sum or mean: xx, yy, Re xy, Im xy at [4k .. 4k+3]
+    private final double[] frame;
+    private final double[] cum;
+    private double[][] slideRing;
+    private int slidePt = 0;
+    private int nAveraged = 0;
+    private int nNew = 0;                // frame pairs since the last update()
+    private STFT.AverageMode averageMode = STFT.AverageMode.BLOCK;
+    private double nAverage = 1;
+
+    private final ArrayDeque<double[]> pendingX = new ArrayDeque<double[]>();
+    private final ArrayDeque<double[]> pendingY = new ArrayDeque<double[]>();
+    private final ArrayDeque<double[]> freeFrames = new ArrayDeque<double[]>();
+
+    // Averages of the last update(), nBins each.
+    final double[] gxx, gyy, gxyRe, gxyIm;
+
+    final STFT.FrameListener inputX = new STFT.FrameListener() {
+        @Override
+        public void onFrame(double[] spectrum, int offset) {
+            receive(spectrum, offset, pendingX, pendingY, true);
+        }
+    };
+
+    final STFT.FrameListener inputY = new STFT.FrameListener() {
+        @Override
+        public void onFrame(double[] spectrum, int offset) {
+            receive(spectrum, offset, pendingY, pendingX, false);
+        }
+    };
+
+    CrossSpectrum(int fftLen) {
+        if (fftLen < 2) {
+            throw new IllegalArgumentException(TAG + " need fftLen >= 2.");
+        }
+        this.fftLen = fftLen;
+        nBins = fftLen / 2 + 1;
+        frame = new double[4 * nBins];
+        cum = new double[4 * nBins];
+        gxx = new double[nBins];
+        gyy = new double[nBins];
+        gxyRe = new double[nBins];
+        gxyIm = new double[nBins];
+    }
+
+    int nBins() {
+        return nBins;
+    }
+
+    /** As STFT.setAverage(). The average restarts if anything changes. */
+    synchronized void setAverage(STFT.AverageMode mode, double nAverage) {
+        if (nAverage < 1) {
+            throw new IllegalArgumentException(TAG + " should nAverage >= 1.");
+        }
+        if (mode == averageMode && nAverage == this.nAverage) {
+            return;
+        }
+        averageMode = mode;
+        this.nAverage = nAverage;
+        slideRing = mode == STFT.AverageMode.SLIDING ? new double[(int) round(nAverage)][4 * nBins] : null;
+        clear();
+    }
+
+    // Called from the feedData() threads of both STFTs, which may differ.
+    private synchronized void receive(double[] h, int o, ArrayDeque<double[]> own, ArrayDeque<double[]> other, boolean isX) {
+        double[] partner = other.poll();
+        if (partner == null) {
+            double[] b = freeFrames.poll();
+            if (b == null) {
+                b = new double[fftLen];
+            }
+            System.arraycopy(h, o, b, 0, fftLen);
+            own.add(b);
+            if (own.size() > MAX_PENDING) {
+                Log.w(TAG, "receive(): the other channel is not fed, dropping frames.");
+                freeFrames.add(own.poll());
+            }
+            return;
+        }
+        if (isX) {
+            addPair(h, o, partner, 0);
+        } else {
+            addPair(partner, 0, h, o);
+        }
+        freeFrames.add(partner);
+    }
+
+    private void addPair(double[] x, int ox, double[] y, int oy) {
+        final double[] p = frame;
+        final int n = fftLen;
+        final double scale = 4.0 / ((double) n * n);
+        double x0 = x[ox], y0 = y[oy];
+        p[0] = x0 * x0 * scale / 4;
+        p[1] = y0 * y0 * scale / 4;
+        p[2] = x0 * y0 * scale / 4;
+        p[3] = 0;
+        int k = 1;
+        for (int i = 1; i < n - 1; i += 2, k++) {
+            double xr = x[ox+i], xi = x[ox+i+1], yr = y[oy+i], yi = y[oy+i+1];
+            p[4*k]   = (xr * xr + xi * xi) * scale;
+            p[4*k+1] = (yr * yr + yi * yi) * scale;
+            p[4*k+2] = (xr * yr + xi * yi) * scale;
+            p[4*k+3] = (xr * yi - xi * yr) * scale;
+        }
+        if (n % 2 == 0) {
+            double xn = x[ox+n-1], yn = y[oy+n-1];
+            p[4*k]   = xn * xn * scale / 4;
+            p[4*k+1] = yn * yn * scale / 4;
+            p[4*k+2] = xn * yn * scale / 4;
+            p[4*k+3] = 0;
+        }
+        addFrame(p);
+        nNew++;
+    }
+
+    // As STFT: sum for BLOCK, running mean for EXPONENTIAL, running sum over slideRing for SLIDING.
+    private void addFrame(double[] p) {
+        final int len = p.length;
+        final double[] avg = cum;
+        if (averageMode == STFT.AverageMode.BLOCK) {
+            for (int j = 0; j < len; j++) {
+                avg[j] += p[j];
+            }
+            return;
+        }
+        if (averageMode == STFT.AverageMode.EXPONENTIAL) {
+            if (nAveraged < nAverage) nAveraged++;
+            double alpha = 1.0 / min(nAveraged, nAverage);
+            for (int j = 0; j < len; j++) {
+                avg[j] += alpha * (p[j] - avg[j]);
+            }
+            return;
+        }
+        double[] old = slideRing[slidePt];
+        for (int j = 0; j < len; j++) {
+            avg[j] += p[j] - old[j];
+        }
+        System.arraycopy(p, 0, old, 0, len);
+        if (++slidePt == slideRing.length) {
+            slidePt = 0;
+            // Redo the sum once per turn, so that rounding errors of the running sum do not build up.
+            Arrays.fill(avg, 0.0);
+            for (double[] r : slideRing) {
+                for (int j = 0; j < len; j++) {
+                    avg[j] += r[j];
+                }
+            }
+        }
+        if (nAveraged < slideRing.length) nAveraged++;
+    }
+
+    /** Frame pairs added since the last update(). */
+    synchronized int nElemSpectrum() {
+        return nNew;
+    }
+
+    /** Renew gxx, gyy, gxyRe and gxyIm if frames were added. BLOCK then restarts the sum. */
+    synchronized void update() {
+        if (nNew == 0) {
+            return;
+        }
+        double scale;
+        if (averageMode == STFT.AverageMode.BLOCK) {
+            scale = 1.0 / nNew;
+        } else {
+            scale = averageMode == STFT.AverageMode.EXPONENTIAL ? 1.0 : 1.0 / nAveraged;
+        }
+        final double[] c = cum;
+        for (int k = 0; k < nBins; k++) {
+            gxx[k]   = c[4*k]   * scale;
+            gyy[k]   = c[4*k+1] * scale;
+            gxyRe[k] = c[4*k+2] * scale;
+            gxyIm[k] = c[4*k+3] * scale;
+        }
+        if (averageMode == STFT.AverageMode.BLOCK) {
+            Arrays.fill(cum, 0.0);
+        }
+        nNew = 0;
+    }
+
+    /** |H|^2 in dB of the last update(), -Inf or NaN where a channel has no power. */
+    void transferDB(Estimator e, double[] outDB) {
+        for (int k = 0; k < nBins; k++) {
+            double c2 = gxyRe[k] * gxyRe[k] + gxyIm[k] * gxyIm[k];
+            outDB[k] = e == Estimator.H1 ? 10.0 * log10(c2 / (gxx[k] * gxx[k]))
+                                         : 10.0 * log10(gyy[k] * gyy[k] / c2);
+        }
+    }
+
+    /** Magnitude squared coherence |Gxy|^2 / (Gxx Gyy) in [0, 1], of the last update(). 0 without power. */
+    void coherence(double[] out) {
+        for (int k = 0; k < nBins; k++) {
+            double d = gxx[k] * gyy[k];
+            out[k] = d > 0 ? min(1.0, (gxyRe[k] * gxyRe[k] + gxyIm[k] * gxyIm[k]) / d) : 0;
+        }
+    }
+
+    /** Drop the averages and unpaired frames, e.g. after clearing the STFTs. */
+    synchronized void clear() {
+        while (!pendingX.isEmpty()) freeFrames.add(pendingX.poll());
+        while (!pendingY.isEmpty()) freeFrames.add(pendingY.poll());
+        Arrays.fill(cum, 0.0);
+        if (slideRing != null) {
+            for (double[] r : slideRing) {
+                Arrays.fill(r, 0.0);
+            }
+        }
+        slidePt = 0;
+        nAveraged = 0;
+        nNew = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+
+/**
+ * Lowers the sample rate by 2^nStages, in stages of 2 with half-band FIR low-pass filters.
+ *
+ * A half-band filter has every other tap zero except the centre one (0.5), so each stage
+ * is a two branch polyphase filter: the output is only computed for the kept samples, and
+ * only the nonzero taps are used, paired by symmetry. Early stages only need to keep the
+ * final band free of aliases, so their transition band is wide and they are short:
+ * 5 or 6 multiplications per output for the first stages, 7 for the second last and
+ * 16 for the last one (90 dB). That is 5 to 8 per input sample in total.
+ *
+ * Content up to PASS_FRACTION of the output Nyquist frequency is kept with less than
+ * 0.001 dB ripple, and aliases into it are attenuated by STOP_DB.
+ * Between that and the output Nyquist frequency is the transition band of the last stage.
+ */
+class Decimator {
+    private static final String TAG = "Decimator:";
+    static final double PASS_FRACTION = 0.8;
+    static final double STOP_DB = 90;
+    static final int MAX_STAGES = 7;
+
+    /** One decimation by 2. */
+    private static class Stage {
+        final double[] g;        // taps at distance 1, 3, 5, ... from the centre
+        final int len;           // filter length, 4 * g.length - 1
+        final double[] hist;     // last len inputs, stored twice
+        int pt = 0;
+        boolean odd = false;     // next input is dropped (computes no output)
+
+        Stage(double transition) {
+            int n = (int) ceil((STOP_DB - 7.95) / (2.285 * 2 * PI * transition)) + 1;
+            int m = max(1, (int) ceil((n + 1) / 4.0));
+            len = 4 * m - 1;
+            g = new double[m];
+            double beta = 0.1102 * (STOP_DB - 8.7);
+            double dn = besselCal.i0(beta);
+            double sum = 0;
+            for (int j = 0; j < m; j++) {
+                int k = 2 * j + 1;
+                double x = (double) k / (2 * m - 1);
+                g[j] = sin(PI * k / 2) / (PI * k) * besselCal.i0(beta * sqrt(max(0, 1 - x * x))) / dn;
+                sum += g[j];
+            }
+            for (int j = 0; j < m; j++) {
+                g[j] *= 0.25 / sum;  // unit gain at DC: 0.5 + 2 * sum(g) = 1
+            }
+            hist = new double[2 * len];
+        }
+
+        // Filter and decimate in[0..n-1] into out, returns the number of outputs.
+        int process(double[] in, int n, double[] out) {
+            final int c = len / 2;
+            int nOut = 0;
+            for (int i = 0; i < n; i++) {
+                hist[pt] = in[i];
+                hist[pt + len] = in[i];
+                if (++pt == len) pt = 0;
+                odd = !odd;
+                if (!odd) continue;
+                // hist[pt .. pt+len-1] is oldest first, centre at pt+c
+                double y = 0.5 * hist[pt + c];
+                for (int j = 0; j < g.length; j++) {
+                    int k = 2 * j + 1;
+                    y += g[j] * (hist[pt + c - k] + hist[pt + c + k]);
+                }
+                out[nOut++] = y;
+            }
+            return nOut;
+        }
+
+        void clear() {
+            Arrays.fill(hist, 0.0);
+            pt = 0;
+            odd = false;
+        }
+    }
+
+    private final Stage[] stages;
+    private final int factor;
+    private double[] work1 = new double[0], work2 = new double[0];
+
+    /**
+     * Largest factor 2^k, k <= MAX_STAGES, that keeps fMax below PASS_FRACTION of the new
+     * Nyquist frequency and the new rate an integer. 1 if fMax <= 0.
+     */
+    static int factorFor(int sampleRate, double fMax) {
+        int d = 1;
+        if (fMax <= 0) {
+            return d;
+        }
+        for (int k = 0; k < MAX_STAGES; k++) {
+            int d2 = 2 * d;
+            if (sampleRate % d2 != 0 || PASS_FRACTION * sampleRate / d2 / 2 < fMax) {
+                break;
+            }
+            d = d2;
+        }
+        return d;
+    }
+
+    /**
+     * @param factor a power of 2, at most 2^MAX_STAGES.
+     */
+    Decimator(int factor) {
+        if (factor < 1 || (factor & (factor - 1)) != 0 || factor > (1 << MAX_STAGES)) {
+            throw new IllegalArgumentException(TAG + " factor must be a power of 2 up to " + (1 << MAX_STAGES) + ".");
+        }
+        this.factor = factor;
+        int n = Integer.numberOfTrailingZeros(factor);
+        stages = new Stage[n];
+        // Final pass band edge is PASS_FRACTION / 2 of the output rate, i.e. (PASS_FRACTION / 2) / 2^(n-s)
+        // of the input rate of stage s. Stage s may let through anything that does not alias below it.
+        for (int s = 0; s < n; s++) {
+            double fPass = PASS_FRACTION / 2 / (1 << (n - s));
+            stages[s] = new Stage(0.5 - 2 * fPass);
+        }
+    }
+
+    int getFactor() {
+        return factor;
+    }
+
+    /** Number of multiplications per input sample, for the log. */
+    double cost() {
+        double c = 0;
+        for (int s = 0; s < stages.length; s++) {
+            c += (stages[s].g.length + 1) / (double) (2 << s);
+        }
+        return c;
+    }
+
+    /**
+     * Decimate in[0..len-1]. Returns the number of samples written to out, which needs
+     * room for len / factor + 1 samples. State is kept between calls, so len is arbitrary.
+     * The output keeps the scale of in and is not rounded, so its noise floor is that of
+     * the input minus 10*log10(factor) dB. With factor 1 this is a copy.
+     */
+    int process(short[] in, int len, double[] out) {
+        if (factor == 1) {
+            for (int i = 0; i < len; i++) {
+                out[i] = in[i];
+            }
+            return len;
+        }
+        if (work1.length < len) {
+            work1 = new double[len];
+            work2 = new double[len / 2 + 1];
+        }
+        for (int i = 0; i < len; i++) {
+            work1[i] = in[i];
+        }
+        double[] a = work1, b = work2;
+        int n = len;
+        for (Stage st : stages) {
+            n = st.process(a, n, b);
+            double[] t = a; a = b; b = t;
+        }
+        System.arraycopy(a, 0, out, 0, n);
+        return n;
+    }
+
+    void clear() {
+        for (Stage st : stages) {
+            st.clear();
+        }
+    }
+}
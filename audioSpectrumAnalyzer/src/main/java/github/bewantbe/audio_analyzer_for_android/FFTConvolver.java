@@ -0,0 +1,207 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFT;
+
+/**
+ * Streaming FIR filter by FFT overlap-save, O(log N) per sample.
+ *
+ * The kernel of length M is transformed once. Input is processed in blocks of
+ * L samples with an FFT of length N >= L + M - 1 (power of 2), so output is
+ * delayed by L samples, see getLatency().
+ * Also used for cross-correlation (correlator()), regularized deconvolution
+ * (deconvolver()) and the low cut of SamplingLoop (highPass()).
+ */
+class FFTConvolver {
+    private static final String TAG = "FFTConvolver:";
+    private final int kernelLen;    // M
+    private final int blockLen;     // L
+    private final int fftLen;       // N
+    private final int extraDelay;   // modeling delay of the kernel itself, see deconvolver(), highPass()
+    private final RealDoubleFFT fft;
+    private final double[] kernelFT;   // FFT of kernel / N, half-complex layout
+    private final double[] inBuf;      // last M-1 inputs, followed by current block
+    private final double[] outBlock;   // output of previous block
+    private final double[] work;
+    private int blockPt = 0;
+
+    /**
+     * @param kernel    impulse response, y[t] = sum_k kernel[k] x[t-k].
+     * @param blockLen  minimum number of samples per FFT block. Larger is cheaper
+     *                  per sample but gives more latency.
+     */
+    FFTConvolver(double[] kernel, int blockLen) {
+        this(kernel, blockLen, 0);
+    }
+
+    private FFTConvolver(double[] kernel, int minBlockLen, int extraDelay) {
+        if (kernel == null || kernel.length == 0 || minBlockLen <= 0) {
+            throw new IllegalArgumentException(TAG + " empty kernel or non-positive block length.");
+        }
+        kernelLen = kernel.length;
+        fftLen = nextPowerOfTwo(Math.max(2, minBlockLen + kernelLen - 1));
+        blockLen = fftLen - kernelLen + 1;  // use all room of the FFT
+        this.extraDelay = extraDelay;
+        fft = new RealDoubleFFT(fftLen);
+        kernelFT = new double[fftLen];
+        for (int i = 0; i < kernelLen; i++) {
+            kernelFT[i] = kernel[i] / fftLen;  // fold the bt() normalization in
+        }
+        fft.ft(kernelFT);
+        inBuf = new double[fftLen];
+        outBlock = new double[blockLen];
+        work = new double[fftLen];
+    }
+
+    /**
+     * Cross-correlation with template: y[t] = sum_k template[k] x[t-M+1+k],
+     * i.e. y peaks at the time the last sample of a match arrives.
+     */
+    static FFTConvolver correlator(double[] template, int blockLen) {
+        double[] k = new double[template.length];
+        for (int i = 0; i < k.length; i++) {
+            k[i] = template[template.length - 1 - i];
+        }
+        return new FFTConvolver(k, blockLen);
+    }
+
+    /**
+     * Approximate inverse filter of kernel, as an FIR of nTaps taps.
+     * Uses G = conj(H) / (|H|^2 + lambda * max|H|^2), so lambda (e.g. 1e-3)
+     * limits the gain where H is small. The inverse of a non minimum phase
+     * kernel is not causal, so the FIR is centered: output has nTaps/2 samples
+     * of extra delay, included in getLatency().
+     */
+    static FFTConvolver deconvolver(double[] kernel, int nTaps, double lambda, int blockLen) {
+        if (nTaps <= 0 || lambda < 0) {
+            throw new IllegalArgumentException(TAG + " deconvolver(): need nTaps > 0 and lambda >= 0.");
+        }
+        int n = nextPowerOfTwo(2 * Math.max(nTaps, kernel.length));
+        RealDoubleFFT f = new RealDoubleFFT(n);
+        double[] h = new double[n];
+        System.arraycopy(kernel, 0, h, 0, kernel.length);
+        f.ft(h);
+        double maxP = Math.max(h[0]*h[0], h[n-1]*h[n-1]);
+        for (int i = 1; i < n - 1; i += 2) {
+            maxP = Math.max(maxP, h[i]*h[i] + h[i+1]*h[i+1]);
+        }
+        double reg = lambda * maxP;
+        if (maxP == 0 || (reg == 0 && hasZero(h))) {
+            throw new IllegalArgumentException(TAG + " deconvolver(): kernel is not invertible, increase lambda.");
+        }
+        h[0] = h[0] / (h[0]*h[0] + reg);
+        h[n-1] = h[n-1] / (h[n-1]*h[n-1] + reg);
+        for (int i = 1; i < n - 1; i += 2) {
+            double re = h[i], im = h[i+1];
+            double d = re*re + im*im + reg;
+            h[i]   =  re / d;
+            h[i+1] = -im / d;
+        }
+        f.bt(h);
+        int delay = nTaps / 2;
+        double[] g = new double[nTaps];
+        for (int i = 0; i < nTaps; i++) {
+            g[i] = h[(i - delay + n) % n] / n;
+        }
+        return new FFTConvolver(g, blockLen, delay);
+    }
+
+    /**
+     * Linear phase high-pass, a Blackman windowed sinc: passes above 1.5 fCut, and is below
+     * -74 dB under fCut / 2 and exactly 0 at DC. It has about 5.5 sampleRate / fCut taps; the
+     * group delay of half of them is included in getLatency().
+     */
+    static FFTConvolver highPass(double fCut, double sampleRate) {
+        if (!(fCut > 0 && fCut < sampleRate / 4)) {
+            throw new IllegalArgumentException(TAG + " highPass(): need 0 < fCut < sampleRate / 4.");
+        }
+        int delay = (int) Math.ceil(2.75 * sampleRate / fCut);
+        int m = 2 * delay + 1;
+        double[] h = new double[m];
+        double wc = 2 * Math.PI * fCut / sampleRate;
+        double sum = 0;
+        for (int i = 0; i < m; i++) {  // low-pass at fCut
+            int k = i - delay;
+            double w = 0.42 - 0.5 * Math.cos(2 * Math.PI * i / (m - 1)) + 0.08 * Math.cos(4 * Math.PI * i / (m - 1));
+            h[i] = (k == 0 ? wc / Math.PI : Math.sin(wc * k) / (Math.PI * k)) * w;
+            sum += h[i];
+        }
+        for (int i = 0; i < m; i++) {  // minus the unity gain low-pass
+            h[i] = -h[i] / sum;
+        }
+        h[delay] += 1;
+        // Blocks of at least m/8 samples: shorter blocks cost more per sample, longer ones add latency.
+        return new FFTConvolver(h, Math.max(1, m / 8), delay);
+    }
+
+    private static boolean hasZero(double[] hc) {
+        int n = hc.length;
+        if (hc[0] == 0 || hc[n-1] == 0) return true;
+        for (int i = 1; i < n - 1; i += 2) {
+            if (hc[i] == 0 && hc[i+1] == 0) return true;
+        }
+        return false;
+    }
+
+    static int nextPowerOfTwo(int n) {
+        int p = 1;
+        while (p < n) p *= 2;
+        return p;
+    }
+
+    /**
+     * Filter len samples. out[outOff+i] is the output for the input sample
+     * getLatency() samples before in[inOff+i]. in and out may be the same array.
+     */
+    void process(double[] in, int inOff, double[] out, int outOff, int len) {
+        int i = 0;
+        while (i < len) {
+            int n = Math.min(len - i, blockLen - blockPt);
+            System.arraycopy(in, inOff + i, inBuf, kernelLen - 1 + blockPt, n);
+            System.arraycopy(outBlock, blockPt, out, outOff + i, n);
+            blockPt += n;
+            i += n;
+            if (blockPt == blockLen) {
+                processBlock();
+                blockPt = 0;
+            }
+        }
+    }
+
+    // y = last L samples of circular convolution of inBuf and kernel.
+    private void processBlock() {
+        final double[] w = work;
+        final double[] k = kernelFT;
+        final int n = fftLen;
+        System.arraycopy(inBuf, 0, w, 0, n);
+        fft.ft(w);
+        w[0] *= k[0];
+        w[n-1] *= k[n-1];
+        for (int i = 1; i < n - 1; i += 2) {
+            double re = w[i]*k[i] - w[i+1]*k[i+1];
+            double im = w[i]*k[i+1] + w[i+1]*k[i];
+            w[i]   = re;
+            w[i+1] = im;
+        }
+        fft.bt(w);
+        System.arraycopy(w, kernelLen - 1, outBlock, 0, blockLen);
+        System.arraycopy(inBuf, blockLen, inBuf, 0, kernelLen - 1);
+    }
+
+    /** Delay from input to output in samples, including the centering delay of deconvolver() and highPass(). */
+    int getLatency() {
+        return blockLen + extraDelay;
+    }
+
+    int getBlockLen() {
+        return blockLen;
+    }
+
+    /** Forget all history, as if newly constructed. */
+    void reset() {
+        Arrays.fill(inBuf, 0.0);
+        Arrays.fill(outBlock, 0.0);
+        blockPt = 0;
+    }
+}
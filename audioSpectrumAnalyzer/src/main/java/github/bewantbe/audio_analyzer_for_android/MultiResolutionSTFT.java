@@ -0,0 +1,327 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+
+/**
+ * Several STFTs of different lengths over the same samples, stitched into one spectrum.
+ *
+ * Band k uses FFT length fftLens[k] for frequencies in [crossoverFreqs[k-1], crossoverFreqs[k]),
+ * so long FFTs resolve the bass while short FFTs keep transients in the treble sharp.
+ * The output is on the bin grid of the longest FFT (fftLens[0]) and is updated at its pace,
+ * so it is a drop-in for STFT in SamplingLoop, SpectrumPlot and SpectrogramBMP.
+ * Shorter bands are delayed so that all frames are centred on the same time,
+ * and each runs on its own worker thread. A sine reads the same level in every band;
+ * the noise floor of a band is 10*log10(fftLens[0]/fftLens[k]) dB higher.
+ *
+ * Shorter bands are not published at their own hop: their frames are averaged over one
+ * update of band 0 (hopLen * nFFTAverage samples). SpectrogramPlot takes one row per such
+ * update for its time axis, and a row must hold all bands. What the short bands gain is
+ * the window length: a click smears over fftLens[k] + hop samples in band k, instead of
+ * fftLens[0] samples of overlapping frames in band 0. So the gain in time resolution is
+ * fftLens[0] / (fftLens[k] + hopLen * nFFTAverage), and needs a band 0 with high overlap.
+ *
+ * With one band this is a plain STFT.
+ */
+class MultiResolutionSTFT {
+    private static final String TAG = "MultiResolutionSTFT:";
+    static final double[] DEFAULT_CROSSOVER_FREQS = {500, 5000};
+    static final int DEFAULT_LEN_RATIO = 8;   // fftLen ratio of adjacent default bands
+    static final int MIN_BAND_FFT_LEN = 128;
+
+    private final Band[] bands;
+    private final int fftLen;
+    private final double[] spectrumAmpOutDB;
+    private final double[] binPower;
+    private final int[] binBand;   // band and bin of the band, for each output bin
+    private final int[] binSrc;
+    private final double[][] bandOut;     // spectra of the bands, filled by getSpectrumAmpDB() and getBinPower()
+    private final double[] bandScale;     // power scale of each band, see getBinPower()
+    private ExecutorService workers;
+
+    double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
+
+    private static class Band implements Callable<Void> {
+        final STFT stft;
+        final double fLow, fHigh;
+        final int fftLen;
+        final int hopLen;
+        final int delay;          // samples, aligns frame centre with the longest band
+        final double[] history;   // last delay samples
+        double[] cat = new double[0];
+        double[] ds;
+        int dsLen;
+
+        Band(STFT stft, int fftLen, int hopLen, double fLow, double fHigh, int delay) {
+            this.stft = stft;
+            this.fftLen = fftLen;
+            this.hopLen = hopLen;
+            this.fLow = fLow;
+            this.fHigh = fHigh;
+            this.delay = delay;
+            history = new double[delay];
+        }
+
+        void feed(double[] x, int len) {
+            if (delay == 0) {
+                stft.feedData(x, len);
+                return;
+            }
+            if (cat.length < delay + len) {
+                cat = new double[delay + len];
+            }
+            System.arraycopy(history, 0, cat, 0, delay);
+            System.arraycopy(x, 0, cat, delay, len);
+            stft.feedData(cat, len);
+            System.arraycopy(cat, len, history, 0, delay);
+        }
+
+        @Override
+        public Void call() {
+            feed(ds, dsLen);
+            return null;
+        }
+    }
+
+    /** Single band, or the default bands if analyzerParam.multiResolution is set. */
+    MultiResolutionSTFT(AnalyzerParameters analyzerParam) {
+        this(analyzerParam, analyzerParam.multiResolution ? defaultFftLens(analyzerParam) : new int[]{analyzerParam.fftLen},
+                DEFAULT_CROSSOVER_FREQS);
+    }
+
+    /**
+     * @param fftLens        FFT length of each band, decreasing, fftLens[0] is the output grid.
+     *                       Band 0 keeps the overlap of analyzerParam, the others use at most 50%:
+     *                       their frames are averaged over one hop of band 0 anyway.
+     * @param crossoverFreqs at least fftLens.length - 1 increasing frequencies, extra ones are ignored.
+     */
+    MultiResolutionSTFT(AnalyzerParameters analyzerParam, int[] fftLens, double[] crossoverFreqs) {
+        if (fftLens.length == 0 || crossoverFreqs.length < fftLens.length - 1) {
+            throw new IllegalArgumentException(TAG + " need one crossover frequency between adjacent bands.");
+        }
+        for (int k = 1; k < fftLens.length; k++) {
+            if (fftLens[k] >= fftLens[k-1] || (k >= 2 && crossoverFreqs[k-1] <= crossoverFreqs[k-2])) {
+                throw new IllegalArgumentException(TAG + " fftLens must decrease and crossoverFreqs increase.");
+            }
+        }
+        fftLen = fftLens[0];
+        bands = new Band[fftLens.length];
+        double hopLenRatio = (double) analyzerParam.hopLen / analyzerParam.fftLen;
+        for (int k = 0; k < fftLens.length; k++) {
+            int n = fftLens[k];
+            int hop = max(1, (int) round(n * (k == 0 ? hopLenRatio : max(hopLenRatio, 0.5))));
+            double fLow  = k == 0 ? 0 : crossoverFreqs[k-1];
+            double fHigh = k == fftLens.length - 1 ? Double.MAX_VALUE : crossoverFreqs[k];
+            bands[k] = new Band(new STFT(analyzerParam, n, hop), n, hop, fLow, fHigh, (fftLen - n) / 2);
+        }
+
+        spectrumAmpOutDB = new double[fftLen/2+1];
+        binPower = new double[fftLen/2+1];
+        binBand = new int[fftLen/2+1];
+        binSrc  = new int[fftLen/2+1];
+        bandOut = new double[bands.length][];
+        bandScale = new double[bands.length];
+        for (int j = 0; j < bands.length; j++) {
+            bandScale[j] = bands[j].stft.getWndEnergyFactor() * bands[j].fftLen / fftLen;
+        }
+        int k = 0;
+        for (int i = 0; i < binBand.length; i++) {
+            double f = (double) i * analyzerParam.analysisRate() / fftLen;
+            while (f >= bands[k].fHigh) k++;
+            int n = bands[k].fftLen;
+            binBand[i] = k;
+            binSrc[i]  = min((int) round((double) i * n / fftLen), n/2);  // nearest bin
+        }
+
+        if (bands.length > 1) {
+            workers = Executors.newFixedThreadPool(bands.length - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MultiResolutionSTFT");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            StringBuilder sb = new StringBuilder();
+            for (Band b : bands) {
+                sb.append(" ").append(b.fftLen).append("@").append(b.fLow).append("Hz");
+            }
+            Log.i(TAG, "bands:" + sb);
+        }
+    }
+
+    /**
+     * Lengths fftLen, fftLen/8, fftLen/64, ... for DEFAULT_CROSSOVER_FREQS, dropping bands shorter
+     * than MIN_BAND_FFT_LEN or above Nyquist.
+     */
+    static int[] defaultFftLens(AnalyzerParameters analyzerParam) {
+        int nBands = 1;
+        int n = analyzerParam.fftLen;
+        while (nBands <= DEFAULT_CROSSOVER_FREQS.length
+                && n / DEFAULT_LEN_RATIO >= MIN_BAND_FFT_LEN
+                && DEFAULT_CROSSOVER_FREQS[nBands-1] < analyzerParam.analysisRate() / 2.0) {
+            n /= DEFAULT_LEN_RATIO;
+            nBands++;
+        }
+        int[] lens = new int[nBands];
+        lens[0] = analyzerParam.fftLen;
+        for (int k = 1; k < nBands; k++) {
+            lens[k] = lens[k-1] / DEFAULT_LEN_RATIO;
+        }
+        return lens;
+    }
+
+    int nBands() {
+        return bands.length;
+    }
+
+    /** As STFT.setAverage(), nAverage in frames of the longest band. Other bands average over the same time. */
+    void setAverage(STFT.AverageMode mode, double nAverage) {
+        for (Band b : bands) {
+            b.stft.setAverage(mode, max(1.0, nAverage * bands[0].hopLen / b.hopLen));
+        }
+    }
+
+    /** As STFT.feedData(double[], int). */
+    void feedData(double[] ds, int dsLen) {
+        dsLen = min(dsLen, ds.length);
+        if (workers == null) {
+            bands[0].feed(ds, dsLen);
+            return;
+        }
+        ArrayList<Future<Void>> done = new ArrayList<Future<Void>>(bands.length - 1);
+        for (int k = 1; k < bands.length; k++) {
+            bands[k].ds = ds;
+            bands[k].dsLen = dsLen;
+            done.add(workers.submit(bands[k]));
+        }
+        bands[0].feed(ds, dsLen);
+        // Wait even if interrupted, the bands must be idle when we return.
+        boolean interrupted = false;
+        for (Future<Void> f : done) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(TAG + " band failed.", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();  // leave it to the caller, e.g. SamplingLoop.finish()
+        }
+    }
+
+    /** Number of new frames of the longest band, as STFT.nElemSpectrumAmp(). */
+    int nElemSpectrumAmp() {
+        return bands[0].stft.nElemSpectrumAmp();
+    }
+
+    final double[] getSpectrumAmpDB() {
+        if (bands.length == 1) {
+            return bands[0].stft.getSpectrumAmpDB();
+        }
+        final double[][] db = bandOut;
+        for (int k = 0; k < bands.length; k++) {
+            db[k] = bands[k].stft.getSpectrumAmpDB();
+        }
+        for (int i = 0; i < spectrumAmpOutDB.length; i++) {
+            spectrumAmpOutDB[i] = db[binBand[i]][binSrc[i]];
+        }
+        return spectrumAmpOutDB;
+    }
+
+    /**
+     * Power of each output bin, scaled so that a sum over bins is the mean square of those
+     * frequencies, as getRMSFromFT(). A bin of band k stands for fftLen/fftLens[k] output bins.
+     * Call after getSpectrumAmpDB().
+     */
+    final double[] getBinPower() {
+        final double[][] p = bandOut;
+        final double[] scale = bandScale;
+        for (int k = 0; k < bands.length; k++) {
+            p[k] = bands[k].stft.getSpectrumAmp();
+        }
+        for (int i = 0; i < binPower.length; i++) {
+            int k = binBand[i];
+            binPower[i] = p[k][binSrc[i]] * scale[k];
+        }
+        return binPower;
+    }
+
+    /** getBinPower() / getWndEnergyFactor() is getSpectrumAmpDB() in power, in the finest band. */
+    double getWndEnergyFactor() {
+        return bands[0].stft.getWndEnergyFactor();
+    }
+
+    double getRMS() {
+        return bands[0].stft.getRMS();
+    }
+
+    double getRMSFromFT() {
+        double s = 0;
+        for (Band b : bands) {
+            double r = b.stft.getRMSFromFT(b.fLow, b.fHigh);
+            s += r * r;
+        }
+        return Math.sqrt(s);
+    }
+
+    // Each band is searched in its own resolution.
+    void calculatePeak() {
+        maxAmpDB = Double.NEGATIVE_INFINITY;
+        for (Band b : bands) {
+            b.stft.calculatePeak(b.fLow, b.fHigh);
+            if (b.stft.maxAmpDB > maxAmpDB) {
+                maxAmpDB = b.stft.maxAmpDB;
+                maxAmpFreq = b.stft.maxAmpFreq;
+            }
+        }
+    }
+
+    /** Complex frames of the longest band, which has the fftLen and hopLen of analyzerParam. See STFT.setFrameListener(). */
+    void setFrameListener(STFT.FrameListener listener) {
+        bands[0].stft.setFrameListener(listener);
+    }
+
+    /** Corrections of the longest band, see STFT.getCorrection(). */
+    SpectralCorrection getCorrection() {
+        return bands[0].stft.getCorrection();
+    }
+
+    void setAWeighting(boolean isAWeighting) {
+        for (Band b : bands) {
+            b.stft.setAWeighting(isAWeighting);
+        }
+    }
+
+    void clear() {
+        for (Band b : bands) {
+            b.stft.clear();
+            Arrays.fill(b.history, 0.0);
+        }
+    }
+
+    /** Stop the worker threads. */
+    void release() {
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+
+/**
+ * Fractional octave band levels (1/1, 1/3, 1/6, 1/12 octave) from a power spectrum.
+ *
+ * Bands follow IEC 61260-1, base 10: the octave ratio is G = 10^(3/10), midband
+ * frequencies are 1000 G^(x/b) for odd b and 1000 G^((2x+1)/(2b)) for even b, and the
+ * band edges are a factor G^(1/(2b)) either side. A bin stands for the interval of one
+ * bin width around its centre, and contributes to a band the fraction of that interval
+ * inside the band, so each band is a short contiguous run of weighted bins. These
+ * weights are computed once per (fraction, fftLen, sampleRate) and shared, see get().
+ *
+ * Only bands at least one bin wide and below sampleRate/2 are kept, so the lowest band
+ * depends on fftLen. The level is ideal (brick wall) filtering of the STFT spectrum,
+ * so it has the resolution and leakage of the STFT window, not of IEC filters.
+ */
+class OctaveBands {
+    private static final String TAG = "OctaveBands:";
+    static final double G = pow(10, 0.3);
+    static final double F_MIN = 10;   // lowest midband frequency considered
+    static final int MAX_MATRICES = 4;
+
+    /** Bin to band weights, shared between instances. Do not modify. */
+    static final class Matrix {
+        final int fraction;
+        final int nBands;
+        final double[] fCentre, fLow, fHigh;
+        final int[] binBegin;    // first bin of band j
+        final int[] offset;      // weights of band j are weight[offset[j] .. offset[j+1])
+        final double[] weight;
+
+        private Matrix(int fraction, int fftLen, int sampleRate) {
+            this.fraction = fraction;
+            double df = (double) sampleRate / fftLen;
+            double half = pow(G, 1.0 / (2 * fraction));
+            // band index x from the lowest midband >= F_MIN to the highest edge <= sampleRate/2
+            double step = log10(G) / fraction;
+            double shift = fraction % 2 == 0 ? 0.5 : 0;
+            int xLow  = (int) ceil(log10(F_MIN / 1000) / step - shift);
+            int xHigh = (int) floor(log10(sampleRate / 2.0 / half / 1000) / step - shift);
+            int n = max(0, xHigh - xLow + 1);
+            double[] fc = new double[n], fl = new double[n], fh = new double[n];
+            int m = 0;
+            for (int x = xLow; x <= xHigh; x++) {
+                double f = 1000 * pow(10, (x + shift) * step);
+                if (f * (half - 1 / half) < df) continue;   // narrower than a bin
+                fc[m] = f;
+                fl[m] = f / half;
+                fh[m] = f * half;
+                m++;
+            }
+            nBands = m;
+            fCentre = Arrays.copyOf(fc, m);
+            fLow = Arrays.copyOf(fl, m);
+            fHigh = Arrays.copyOf(fh, m);
+            binBegin = new int[m];
+            offset = new int[m + 1];
+            int nWeights = 0;
+            for (int j = 0; j < m; j++) {
+                binBegin[j] = (int) floor(fLow[j] / df + 0.5);
+                int binEnd = min(fftLen / 2, (int) floor(fHigh[j] / df + 0.5));
+                offset[j] = nWeights;
+                nWeights += binEnd - binBegin[j] + 1;
+            }
+            offset[m] = nWeights;
+            weight = new double[nWeights];
+            for (int j = 0; j < m; j++) {
+                for (int k = offset[j]; k < offset[j+1]; k++) {
+                    int i = binBegin[j] + k - offset[j];
+                    double a = max((i - 0.5) * df, fLow[j]);
+                    double b = min((i + 0.5) * df, fHigh[j]);
+                    weight[k] = max(0, b - a) / df;
+                }
+            }
+        }
+    }
+
+    private static final LinkedHashMap<String, Matrix> matrices =
+            new LinkedHashMap<String, Matrix>(MAX_MATRICES + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Matrix> eldest) {
+                    return size() > MAX_MATRICES;
+                }
+            };
+
+    /** Weights for 1/fraction octave bands of an fftLen point spectrum, computed once per key. */
+    static synchronized Matrix get(int fraction, int fftLen, int sampleRate) {
+        if (fraction != 1 && fraction != 3 && fraction != 6 && fraction != 12) {
+            throw new IllegalArgumentException(TAG + " fraction must be 1, 3, 6 or 12.");
+        }
+        String key = fraction + "/" + fftLen + "/" + sampleRate;
+        Matrix t = matrices.get(key);
+        if (t == null) {
+            t = new Matrix(fraction, fftLen, sampleRate);
+            matrices.put(key, t);
+        }
+        return t;
+    }
+
+    final Matrix bands;
+    final double[] levelDB;   // result of the last compute(), one per band
+
+    OctaveBands(int fraction, int fftLen, int sampleRate) {
+        bands = get(fraction, fftLen, sampleRate);
+        levelDB = new double[bands.nBands];
+        Arrays.fill(levelDB, log10(0));
+    }
+
+    int nBands() {
+        return bands.nBands;
+    }
+
+    /**
+     * Band levels in dB from binPower (fftLen/2+1 bins), where the sum over all bins is the
+     * mean square, e.g. MultiResolutionSTFT.getBinPower(). Returns levelDB.
+     */
+    double[] compute(double[] binPower) {
+        final int[] begin = bands.binBegin, off = bands.offset;
+        final double[] w = bands.weight;
+        for (int j = 0; j < bands.nBands; j++) {
+            double s = 0;
+            for (int k = off[j], i = begin[j]; k < off[j+1]; k++, i++) {
+                s += w[k] * binPower[i];
+            }
+            levelDB[j] = 10 * log10(s);
+        }
+        return levelDB;
+    }
+
+    /** "time_s,<midband Hz>,..." for a CSV log of band levels. */
+    void appendCsvHeader(StringBuilder sb) {
+        sb.append("time_s");
+        for (int j = 0; j < bands.nBands; j++) {
+            sb.append(',').append(String.format(Locale.US, "%.1f", bands.fCentre[j]));
+        }
+        sb.append('\n');
+    }
+
+    /** One CSV row of the last levels, in dB with 0.01 dB resolution. */
+    void appendCsvRow(StringBuilder sb, double timeSec) {
+        sb.append(String.format(Locale.US, "%.3f", timeSec));
+        for (int j = 0; j < bands.nBands; j++) {
+            sb.append(',');
+            if (Double.isInfinite(levelDB[j])) continue;
+            sb.append(String.format(Locale.US, "%.2f", levelDB[j]));
+        }
+        sb.append('\n');
+    }
+}
@@ -0,0 +1,213 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+
+/**
+ * The K strongest peaks of a dB spectrum, grouped into harmonic series and tracked over frames.
+ *
+ * One pass over the bins keeps the candidates in a min-heap of size K, so the cost is
+ * O(n log K). A peak is a bin not lower than its two neighbours on each side (the main
+ * lobe of a Hann window is 4 bins wide) and above minDB. Each peak is refined by a parabola
+ * through the three dB values at the top; on a log scale that is Gaussian interpolation,
+ * exact for a Gaussian-shaped lobe and close for Hann.
+ *
+ * Peaks are grouped into harmonic series, lowest first: a peak within tolerance of an
+ * integer multiple (up to MAX_HARMONIC) of a lower fundamental is its harmonic. Each peak
+ * keeps an id while it stays within one bin of a peak of the last frame. If the set of peak
+ * bins is the same as last frame, the grouping is kept and only the refinement is redone.
+ */
+class PeakDetector {
+    private static final String TAG = "PeakDetector:";
+    static final double HARMONIC_TOLERANCE = 0.005;  // relative, or one bin if larger, at most f0/8
+    static final int MAX_HARMONIC = 16;
+
+    private final int maxPeaks;
+    private double minDB;
+    // heap of candidate bins, weakest at the top
+    private final int[] heapBin;
+    private int heapSize = 0;
+
+    // Results of the last find(), ascending in frequency. Do not modify.
+    int nPeaks = 0;
+    final int[] bin;
+    final double[] freq;
+    final double[] db;
+    final int[] harmonic;    // 1 for a fundamental (or a lone peak), n for its n-th harmonic
+    final int[] group;       // index of the fundamental of the series
+    final int[] id;          // same id as the peak of last frame within one bin, else a new one
+
+    private int nLast = 0;
+    private final int[] lastBin;
+    private final int[] lastId;
+    private final int[] lastHarmonic, lastGroup;
+    private int nextId = 0;
+
+    PeakDetector(int maxPeaks, double minDB) {
+        if (maxPeaks < 1) {
+            throw new IllegalArgumentException(TAG + " maxPeaks must be at least 1.");
+        }
+        this.maxPeaks = maxPeaks;
+        this.minDB = minDB;
+        heapBin = new int[maxPeaks];
+        bin = new int[maxPeaks];
+        freq = new double[maxPeaks];
+        db = new double[maxPeaks];
+        harmonic = new int[maxPeaks];
+        group = new int[maxPeaks];
+        id = new int[maxPeaks];
+        lastBin = new int[maxPeaks];
+        lastId = new int[maxPeaks];
+        lastHarmonic = new int[maxPeaks];
+        lastGroup = new int[maxPeaks];
+    }
+
+    int getMaxPeaks() {
+        return maxPeaks;
+    }
+
+    void setMinDB(double minDB) {
+        this.minDB = minDB;
+    }
+
+    /**
+     * Find the peaks of spectrum s (dB, bin i at frequency i * binWidth) among bins
+     * [iBegin, iEnd). Returns nPeaks, the results are in the fields.
+     */
+    int find(double[] s, double binWidth, int iBegin, int iEnd) {
+        iBegin = max(iBegin, 0);
+        iEnd = min(iEnd, s.length);
+        heapSize = 0;
+        for (int i = iBegin; i < iEnd; i++) {
+            double v = s[i];
+            if (!(v > minDB)) continue;  // also skips NaN
+            if (heapSize == maxPeaks && v <= s[heapBin[0]]) continue;
+            if (i >= 1 && s[i-1] > v || i >= 2 && s[i-2] > v
+                    || i + 1 < s.length && s[i+1] >= v || i + 2 < s.length && s[i+2] >= v) {
+                continue;  // not a maximum; ties go to the lower bin
+            }
+            if (heapSize < maxPeaks) {
+                heapBin[heapSize] = i;
+                siftUp(s, heapSize++);
+            } else {
+                heapBin[0] = i;
+                siftDown(s, 0);
+            }
+        }
+
+        nPeaks = heapSize;
+        System.arraycopy(heapBin, 0, bin, 0, nPeaks);
+        Arrays.sort(bin, 0, nPeaks);
+        for (int k = 0; k < nPeaks; k++) {
+            refine(s, k, binWidth);
+        }
+        boolean sameBins = nPeaks == nLast;
+        for (int k = 0; sameBins && k < nPeaks; k++) {
+            sameBins = bin[k] == lastBin[k];
+        }
+        if (sameBins) {
+            System.arraycopy(lastId, 0, id, 0, nPeaks);
+            System.arraycopy(lastHarmonic, 0, harmonic, 0, nPeaks);
+            System.arraycopy(lastGroup, 0, group, 0, nPeaks);
+            return nPeaks;
+        }
+        track();
+        groupHarmonics(binWidth);
+        nLast = nPeaks;
+        System.arraycopy(bin, 0, lastBin, 0, nPeaks);
+        System.arraycopy(id, 0, lastId, 0, nPeaks);
+        System.arraycopy(harmonic, 0, lastHarmonic, 0, nPeaks);
+        System.arraycopy(group, 0, lastGroup, 0, nPeaks);
+        return nPeaks;
+    }
+
+    // Vertex of the parabola through the top three dB values, as STFT.calculatePeak().
+    private void refine(double[] s, int k, double binWidth) {
+        int i = bin[k];
+        freq[k] = i * binWidth;
+        db[k] = s[i];
+        if (i < 1 || i + 1 >= s.length) return;
+        double x1 = s[i-1], x2 = s[i], x3 = s[i+1];
+        double a = (x3 + x1) / 2 - x2;
+        double b = (x3 - x1) / 2;
+        if (a < 0) {
+            double xPeak = -b / (2 * a);
+            if (abs(xPeak) < 1) {
+                freq[k] += xPeak * binWidth;
+                db[k] = (4 * a * x2 - b * b) / (4 * a);
+            }
+        }
+    }
+
+    // Keep the id of the nearest peak of last frame within one bin, both lists are sorted.
+    private void track() {
+        int j = 0;
+        for (int k = 0; k < nPeaks; k++) {
+            while (j < nLast && lastBin[j] < bin[k] - 1) j++;
+            if (j < nLast && lastBin[j] <= bin[k] + 1) {
+                id[k] = lastId[j++];
+            } else {
+                id[k] = nextId++;
+            }
+        }
+    }
+
+    private void groupHarmonics(double binWidth) {
+        Arrays.fill(harmonic, 0, nPeaks, 0);
+        for (int k = 0; k < nPeaks; k++) {
+            if (harmonic[k] != 0) continue;
+            harmonic[k] = 1;
+            group[k] = k;
+            double f0 = freq[k];
+            if (!(f0 > 0)) continue;
+            for (int j = k + 1; j < nPeaks; j++) {
+                if (harmonic[j] != 0) continue;
+                long h = round(freq[j] / f0);
+                double tol = min(max(binWidth, HARMONIC_TOLERANCE * freq[j]), f0 / 8);
+                if (h >= 2 && h <= MAX_HARMONIC && abs(freq[j] - h * f0) <= tol) {
+                    harmonic[j] = (int) h;
+                    group[j] = k;
+                }
+            }
+        }
+    }
+
+    private boolean weaker(double[] s, int a, int b) {
+        return s[heapBin[a]] < s[heapBin[b]];
+    }
+
+    private void swap(int a, int b) {
+        int t = heapBin[a];
+        heapBin[a] = heapBin[b];
+        heapBin[b] = t;
+    }
+
+    private void siftUp(double[] s, int i) {
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (!weaker(s, i, p)) break;
+            swap(i, p);
+            i = p;
+        }
+    }
+
+    private void siftDown(double[] s, int i) {
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= heapSize) break;
+            if (c + 1 < heapSize && weaker(s, c + 1, c)) c++;
+            if (!weaker(s, c, i)) break;
+            swap(i, c);
+            i = c;
+        }
+    }
+
+    void clear() {
+        nPeaks = 0;
+        nLast = 0;
+    }
+}
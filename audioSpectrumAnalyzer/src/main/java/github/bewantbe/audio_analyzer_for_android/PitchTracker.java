@@ -0,0 +1,256 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFT;
+
+import java.util.Arrays;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Time domain pitch detector on the raw samples, the McLeod Pitch Method (MPM).
+ *
+ * Once per feedData(), the newest wndLen samples x are analysed. Only the newest
+ * estimate is shown, so the windows in between are skipped. hopLen is the least
+ * spacing: a call with fewer new samples makes no estimate. The autocorrelation
+ * r(t) = sum x_j x_{j+t} comes from one real FFT of x zero padded to 2 wndLen (so the
+ * circular correlation is the linear one), its power, and the inverse FFT. With
+ * m(t) = sum x_j^2 + x_{j+t}^2 over the same terms, the normalized square difference
+ * function n(t) = 2 r(t) / m(t) lies in [-1, 1] and is 1 at the period of a periodic
+ * signal. The pitch is the first key maximum (the highest n(t) between a positive
+ * going and the next negative going zero crossing) within KEY_MAX_RATIO of the highest
+ * key maximum. Its value is the clarity.
+ *
+ * The lag is first refined by a parabola through three lags, which is biased by up to
+ * a cent at short lags. NEWTON_STEPS Newton steps on n(t) then use the exact r(t) at a
+ * fractional lag, a cosine sum over the kept power spectrum, with m(t) linear between
+ * integer lags.
+ *
+ * The window only needs two periods of the lowest pitch, so at 48 kHz and 50 Hz it is
+ * 2048 samples against a full STFT frame, and the estimate is refreshed every read.
+ * The lag is interpolated, so the resolution does not depend on the window length.
+ */
+class PitchTracker {
+    private static final String TAG = "PitchTracker:";
+    static final double KEY_MAX_RATIO = 0.9;  // MPM constant k
+    static final double MIN_CLARITY = 0.7;    // below this the frame is taken as unvoiced
+    static final double HOP_SECONDS = 0.005;  // least time between estimates
+    static final int NEWTON_STEPS = 2;
+
+    private final int sampleRate;
+    private final int wndLen, hopLen;
+    private final int minLag, maxLag;
+    private double minDB = -90;       // level gate, dB
+    private final double[] ring;      // last wndLen samples
+    private int ringPt = 0;
+    private long nFed = 0;
+    private int nSinceEstimate;       // samples since the last estimate
+    private final double[] x;         // current window, oldest first
+    private final double[] acf;       // 2 wndLen, FFT work space and then r(t)
+    private final double[] nsdf;
+    private final double[] mm;        // m(t)
+    private final double[] pow;       // |X_k|^2, k = 0 .. wndLen
+    private final double[] cosTbl, sinTbl;  // cos, sin of 2 pi k / (2 wndLen)
+    private final RealDoubleFFT fft;
+
+    // Result of the last estimate, NaN freq if unvoiced. Written by feedData().
+    double freq = Double.NaN;
+    double clarity = 0;
+    double db = log10(0);             // RMS of the window, dB
+    int nEstimates = 0;               // estimates done by the last feedData(), 0 or 1
+
+    PitchTracker(AnalyzerParameters analyzerParam) {
+        this(analyzerParam.analysisRate(), 50, 2000);
+    }
+
+    /**
+     * @param fMin lowest pitch to detect in Hz, the window holds two periods of it.
+     * @param fMax highest pitch to detect in Hz, limited to sampleRate/4.
+     */
+    PitchTracker(int sampleRate, double fMin, double fMax) {
+        if (!(fMin > 0) || !(fMax > fMin)) {
+            throw new IllegalArgumentException(TAG + " need 0 < fMin < fMax.");
+        }
+        this.sampleRate = sampleRate;
+        int n = 4;
+        while (n < 2 * sampleRate / fMin) n *= 2;
+        wndLen = n;
+        hopLen = max(1, min(wndLen / 2, (int) (HOP_SECONDS * sampleRate)));
+        maxLag = min(wndLen / 2, (int) ceil(sampleRate / fMin));
+        minLag = max(2, (int) (sampleRate / min(fMax, sampleRate / 4.0)));
+        ring = new double[wndLen];
+        x = new double[wndLen];
+        acf = new double[2 * wndLen];
+        nsdf = new double[maxLag + 2];
+        mm = new double[maxLag + 2];
+        pow = new double[wndLen + 1];
+        cosTbl = new double[wndLen + 1];
+        sinTbl = new double[wndLen + 1];
+        for (int k = 0; k <= wndLen; k++) {
+            cosTbl[k] = Math.cos(Math.PI * k / wndLen);
+            sinTbl[k] = Math.sin(Math.PI * k / wndLen);
+        }
+        fft = new RealDoubleFFT(2 * wndLen);
+        clear();
+    }
+
+    int getWndLen() {
+        return wndLen;
+    }
+
+    int getHopLen() {
+        return hopLen;
+    }
+
+    void setMinDB(double minDB) {
+        this.minDB = minDB;
+    }
+
+    /**
+     * Feed samples, then estimate on the newest window if it is full and at least hopLen
+     * samples came since the last estimate.
+     */
+    void feedData(double[] ds, int dsLen) {
+        nEstimates = 0;
+        for (int k = 0; k < dsLen; k++) {
+            ring[ringPt] = ds[k] / 32768.0;
+            if (++ringPt == wndLen) ringPt = 0;
+        }
+        nFed += dsLen;
+        nSinceEstimate += dsLen;
+        if (nFed >= wndLen && nSinceEstimate >= hopLen) {
+            nSinceEstimate = 0;
+            estimate();
+            nEstimates = 1;
+        }
+    }
+
+    private void estimate() {
+        System.arraycopy(ring, ringPt, x, 0, wndLen - ringPt);
+        System.arraycopy(ring, 0, x, wndLen - ringPt, ringPt);
+        double e = 0;
+        for (int j = 0; j < wndLen; j++) {
+            e += x[j] * x[j];
+        }
+        db = 10 * log10(e / wndLen * 2);  // full scale sine is 0 dB, as STFT
+        freq = Double.NaN;
+        clarity = 0;
+        if (!(db > minDB)) return;
+
+        // r(t) = IFFT(|FFT(x)|^2), half-complex layout of RealDoubleFFT
+        final int n = acf.length;
+        System.arraycopy(x, 0, acf, 0, wndLen);
+        Arrays.fill(acf, wndLen, n, 0.0);
+        fft.ft(acf);
+        pow[0] = acf[0] * acf[0];
+        for (int i = 1, k = 1; i < n - 1; i += 2, k++) {
+            pow[k] = acf[i] * acf[i] + acf[i+1] * acf[i+1];
+        }
+        pow[wndLen] = acf[n-1] * acf[n-1];
+        acf[0] = pow[0];
+        for (int i = 1, k = 1; i < n - 1; i += 2, k++) {
+            acf[i] = pow[k];
+            acf[i+1] = 0;
+        }
+        acf[n-1] = pow[wndLen];
+        fft.bt(acf);  // now n * r(t)
+
+        double m = 2 * e;
+        mm[0] = m;
+        nsdf[0] = 1;
+        for (int t = 1; t <= maxLag + 1; t++) {
+            m -= x[t-1] * x[t-1] + x[wndLen-t] * x[wndLen-t];
+            mm[t] = m;
+            nsdf[t] = m > 0 ? 2 * acf[t] / n / m : 0;
+        }
+        pickPeak();
+    }
+
+    // MPM peak picking on nsdf[0 .. maxLag+1].
+    private void pickPeak() {
+        final double[] d = nsdf;
+        int t = 1;
+        while (t <= maxLag && d[t] > 0) t++;      // leave the lobe at lag 0
+        double highest = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // pass 0 finds the highest key maximum, pass 1 the first one close to it
+            int i = t;
+            while (i <= maxLag) {
+                while (i <= maxLag && d[i] <= 0) i++;
+                int best = -1;
+                while (i <= maxLag && d[i] > 0) {
+                    if (i >= minLag && (best < 0 || d[i] > d[best])) best = i;
+                    i++;
+                }
+                if (best < 0) continue;
+                if (pass == 0) {
+                    highest = max(highest, d[best]);
+                } else if (d[best] >= KEY_MAX_RATIO * highest) {
+                    refine(best);
+                    return;
+                }
+            }
+            if (!(highest > 0)) return;
+        }
+    }
+
+    private void refine(int t) {
+        double y1 = nsdf[t-1], y2 = nsdf[t], y3 = nsdf[t+1];
+        double a = (y3 + y1) / 2 - y2;
+        double b = (y3 - y1) / 2;
+        double lag = t;
+        double c = y2;
+        if (a < 0) {
+            double dt = -b / (2 * a);
+            if (Math.abs(dt) < 1) {
+                lag += dt;
+                c = y2 - b * b / (4 * a);
+            }
+        }
+        if (c < MIN_CLARITY) return;
+        for (int i = 0; i < NEWTON_STEPS; i++) {
+            lag = newtonStep(lag, t);
+        }
+        clarity = c;
+        freq = sampleRate / lag;
+    }
+
+    // One Newton step towards the zero of n'(t) near integer lag t0, stays within t0 +- 1.
+    private double newtonStep(double lag, int t0) {
+        // n r(lag) = sum_k w_k P_k cos(pi k lag / wndLen), w_k = 2 except 1 at k = 0, wndLen
+        double r = 0, r1 = 0, r2 = 0;
+        double c = 1, s = 0;
+        double w = Math.PI * lag / wndLen;
+        double dc = Math.cos(w), ds = Math.sin(w);
+        for (int k = 0; k <= wndLen; k++) {
+            double p = (k == 0 || k == wndLen) ? pow[k] : 2 * pow[k];
+            double a = Math.PI * k / wndLen;
+            r  += p * c;
+            r1 -= p * a * s;
+            r2 -= p * a * a * c;
+            double t = c * dc - s * ds;
+            s = s * dc + c * ds;
+            c = t;
+        }
+        int i = lag < t0 ? t0 - 1 : t0;
+        double m1 = mm[i+1] - mm[i];
+        double m = mm[i] + (lag - i) * m1;
+        // n' = 2 (r' m - r m') / m^2, and d/dt (r' m - r m') = r'' m on a linear piece of m
+        if (!(r2 * m < 0)) return lag;
+        double next = lag - (r1 * m - r * m1) / (r2 * m);
+        return Math.abs(next - t0) < 1 ? next : lag;
+    }
+
+    void clear() {
+        Arrays.fill(ring, 0.0);
+        ringPt = 0;
+        nFed = 0;
+        nSinceEstimate = 0;
+        freq = Double.NaN;
+        clarity = 0;
+        db = log10(0);
+        nEstimates = 0;
+    }
+}
@@ -15,240 +15,339 @@
 
 package github.bewantbe.audio_analyzer_for_android;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.util.Log;
 
 import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFT;
 
-import static java.lang.Math.PI;
 import static java.lang.Math.abs;
-import static java.lang.Math.asin;
-import static java.lang.Math.cos;
-import static java.lang.Math.exp;
 import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.Math.pow;
 import static java.lang.Math.round;
-import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 
 // Short Time Fourier Transform
 class STFT {
+    private static final int BATCH_MAX_SAMPLES = 8192;  // size limit of the FFT batch buffer
+
+    /**
+     * How frame power spectra are averaged, see setAverage().
+     * BLOCK: mean of the frames since the last getSpectrumAmp(), then restart.
+     * EXPONENTIAL: running mean with a time constant of nAverage frames, updated every frame.
+     * SLIDING: mean of the last nAverage frames, updated every frame.
+     */
+    enum AverageMode { BLOCK, EXPONENTIAL, SLIDING }
+
+    /** Receives the complex spectrum of every frame, see setFrameListener(). */
+    interface FrameListener {
+        /**
+         * spectrum[offset .. offset+fftLen-1] is the FFT of the windowed frame, in the
+         * half-complex layout of RealDoubleFFT.ft(): re0, re1, im1, re2, im2, ..., and re(n/2)
+         * last for even n. It is STFT's own buffer and is reused for later frames, so copy
+         * what is to be kept. Called in frame order on the thread of feedData().
+         */
+        void onFrame(double[] spectrum, int offset);
+    }
+
     // data for frequency Analysis
     private double[] spectrumAmpOutCum;
-    private double[] spectrumAmpOutTmp;
     private double[] spectrumAmpOut;
     private double[] spectrumAmpOutDB;
-    private double[] spectrumAmpIn;
-    private double[] spectrumAmpInTmp;
+    private double[] spectrumAmpIn;               // ring buffer of the last fftLen samples
+    private double[] spectrumAmpInTmp;            // windowed frames waiting for FFT, see flushFrames()
     private double[] wnd;
     private double wndEnergyFactor = 1;           // used to keep energy invariant under different window
     private int sampleRate;
     private int fftLen;
     private int hopLen;                           // control overlap of FFTs = (1 - lopLen/fftLen)*100%
-    private int spectrumAmpPt;
+    private int spectrumAmpPt;                    // number of samples of current frame received
+    private int ringPt;                           // next write position in spectrumAmpIn
+    private int nFramesPending = 0;               // number of frames in spectrumAmpInTmp
+    private int maxFramesPending = 1;             // maxBatchFrames(fftLen)
 //    private double[][] spectrumAmpOutArray;
 //    private int spectrumAmpOutArrayPt = 0;        // Pointer for spectrumAmpOutArray
     private int nAnalysed = 0;
     private RealDoubleFFT spectrumAmpFFT;
-    private boolean boolAWeighting = false;
     private double cumRMS = 0;
     private int    cntRMS = 0;
     private double outRMS = 0;
 
-    private double[] dBAFactor;    // multiply to power spectrum to get A-weighting
-    private double[] micGain;
+    private AverageMode averageMode = AverageMode.BLOCK;
+    private double nAverage = 1;                  // frames, for EXPONENTIAL and SLIDING
+    private double[] framePower;                  // power spectrum of one frame
+    private double[] averagePower;                // EXPONENTIAL: running mean. SLIDING: sum over slideRing
+    private double[][] slideRing;                 // SLIDING: last nAverage frame power spectra
+    private int slidePt = 0;
+    private int nAveraged = 0;                    // frames in averagePower, up to nAverage
 
-    private double sqr(double x) { return x*x; }
-  
-    // Generate multiplier for A-weighting
-    private void initDBAFactor(int fftlen, double sampleRate) {
-        dBAFactor = new double[fftlen/2+1];
-        for (int i = 0; i < fftlen/2+1; i++) {
-            double f = (double)i/fftlen * sampleRate;
-            double r = sqr(12200)*sqr(sqr(f)) / ((f*f+sqr(20.6)) * sqrt((f*f+sqr(107.7)) * (f*f+sqr(737.9))) * (f*f+sqr(12200)));
-            dBAFactor[i] = r*r*1.58489319246111;  // 1.58489319246111 = 10^(1/5)
+    private FrameListener frameListener = null;   // null: power only, see setFrameListener()
+    private boolean framesOnly = false;           // no power, average or RMS, see setFramesOnly()
+    private double[] shortIn = new double[0];     // short input widened for feedData(double[], int)
+
+    // Parallel mode, see setParallel(). Each frame is transformed by a worker into its own
+    // buffers, and added to the average in frame order once the worker is done.
+    private static class FrameTask implements Callable<Void> {
+        final double[] frame;
+        final double[] power;
+        final RealDoubleFFT fft;
+        boolean keepSpectrum;      // leave the complex spectrum in frame, for frameListener
+        boolean framesOnly;        // no power, see setFramesOnly()
+        Future<Void> result;
+
+        FrameTask(int fftLen) {
+            frame = new double[fftLen];
+            fft   = new RealDoubleFFT(fftLen);
+            power = new double[fftLen/2+1];
         }
-    }
 
-    private void initWindowFunction(int fftlen, String wndName) {
-        wnd = new double[fftlen];
-        switch (wndName) {
-            case "Bartlett":
-                for (int i=0; i<wnd.length; i++) {  // Bartlett
-                    wnd[i] = asin(sin(PI*i/wnd.length))/PI*2;
-                }
-                break;
-            case "Hanning":
-                for (int i=0; i<wnd.length; i++) {  // Hanning, hw=1
-                    wnd[i] = 0.5*(1-cos(2*PI*i/(wnd.length-1.))) *2;
-                }
-                break;
-            case "Blackman":
-                for (int i=0; i<wnd.length; i++) {  // Blackman, hw=2
-                    wnd[i] = 0.42-0.5*cos(2*PI*i/(wnd.length-1))+0.08*cos(4*PI*i/(wnd.length-1));
-                }
-                break;
-            case "Blackman Harris":
-                for (int i=0; i<wnd.length; i++) {  // Blackman_Harris, hw=3
-                    wnd[i] = (0.35875-0.48829*cos(2*PI*i/(wnd.length-1))+0.14128*cos(4*PI*i/(wnd.length-1))-0.01168*cos(6*PI*i/(wnd.length-1))) *2;
-                }
-                break;
-            case "Kaiser, a=2.0": {
-                double a = 2.0;
-                double dn = besselCal.i0(PI * a);
-                for (int i=0; i<wnd.length; i++) {  // Kaiser, a=2.0
-                    wnd[i] = besselCal.i0(PI*a*sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
-                }
-                break;
-            }
-            case "Kaiser, a=3.0": {
-                double a = 3.0;
-                double dn = besselCal.i0(PI * a);
-                for (int i=0; i<wnd.length; i++) {  // Kaiser, a=3.0
-                    wnd[i] = besselCal.i0(PI*a*sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
-                }
-                break;
-            }
-            case "Kaiser, a=4.0": {
-                double a = 4.0;
-                double dn = besselCal.i0(PI * a);
-                for (int i=0; i<wnd.length; i++) {  // Kaiser, a=4.0
-                    wnd[i] = besselCal.i0(PI*a*sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
-                }
-                break;
-            }
-            // 7 more window functions (by james34602, https://github.com/bewantbe/audio-analyzer-for-android/issues/14 )
-            case "Flat-top": {
-                for (int i=0; i<wnd.length; i++) {
-                    double f = 2 * PI * i / (wnd.length - 1);
-                    wnd[i] = 1 - 1.93 * cos(f) + 1.29 * cos(2 * f) - 0.388 * cos(3 * f) + 0.028 * cos(4 * f);
-                }
-                break;
-            }
-            case "Nuttall": {
-                double a0 = 0.355768;
-                double a1 = 0.487396;
-                double a2 = 0.144232;
-                double a3 = 0.012604;
-                for (int i=0; i<wnd.length; i++)
-                {
-                    double scale = PI * i / (wnd.length - 1);
-                    wnd[i] = a0 - a1 * cos(2.0 * scale) + a2 * cos(4.0 * scale) - a3 * cos(6.0 * scale);
-                }
-                break;
-            }
-            case "Gaussian, b=3.0": {
-                double Beta = 3.0;
-                double Arg;
-                for (int i=0; i<wnd.length; i++) {
-                    Arg = (Beta * (1.0 - ((double)i / (double)wnd.length) * 2.0));
-                    wnd[i] = exp(-0.5 * (Arg * Arg));
-                }
-                break;
-            }
-            case "Gaussian, b=5.0": {
-                double Beta = 5.0;
-                double Arg;
-                for (int i=0; i<wnd.length; i++) {
-                    Arg = (Beta * (1.0 - ((double)i / (double)wnd.length) * 2.0));
-                    wnd[i] = exp(-0.5 * (Arg * Arg));
-                }
-                break;
-            }
-            case "Gaussian, b=6.0": {
-                double Beta = 6.0;
-                double Arg;
-                for (int i=0; i<wnd.length; i++) {
-                    Arg = (Beta * (1.0 - ((double)i / (double)wnd.length) * 2.0));
-                    wnd[i] = exp(-0.5 * (Arg * Arg));
-                }
-                break;
-            }
-            case "Gaussian, b=7.0": {
-                double Beta = 7.0;
-                double Arg;
-                for (int i=0; i<wnd.length; i++) {
-                    Arg = (Beta * (1.0 - ((double)i / (double)wnd.length) * 2.0));
-                    wnd[i] = exp(-0.5 * (Arg * Arg));
+        @Override
+        public Void call() {
+            if (keepSpectrum) {
+                fft.ft(frame, 0, frame.length, 1);
+                if (!framesOnly) {
+                    Arrays.fill(power, 0.0);
+                    addPower(frame, 0, frame.length, power);
                 }
-                break;
-            }
-            case "Gaussian, b=8.0": {
-                double Beta = 8.0;
-                double Arg;
-                for (int i=0; i<wnd.length; i++) {
-                    Arg = (Beta * (1.0 - ((double)i / (double)wnd.length) * 2.0));
-                    wnd[i] = exp(-0.5 * (Arg * Arg));
-                }
-                break;
+            } else {
+                fft.ftPower(frame, 0, frame.length, 1, power, false);
             }
-            default:
-                for (int i=0; i<wnd.length; i++) {
-                    wnd[i] = 1;
-                }
-                break;
+            return null;
         }
-        double normalizeFactor = 0;
-        for (int i=0; i<wnd.length; i++) {
-            normalizeFactor += wnd[i];
-        }
-        normalizeFactor = wnd.length / normalizeFactor;
-        wndEnergyFactor = 0;
-        for (int i=0; i<wnd.length; i++) {
-            wnd[i] *= normalizeFactor;
-            wndEnergyFactor += wnd[i]*wnd[i];
+    }
+
+    static final int MAX_WORKERS = 4;
+    private static ExecutorService sharedWorkers;
+    private ExecutorService workers = null;       // null: serial
+    private final ArrayDeque<FrameTask> framesInFlight = new ArrayDeque<FrameTask>();  // oldest first
+    private int maxFramesInFlight = 1;            // 2 * workerCount(), beyond that feedData() waits
+    private final ArrayDeque<FrameTask> freeFrameTasks = new ArrayDeque<FrameTask>();
+
+    private SpectralCorrection correction;   // micGain, A-weighting, ..., applied in getSpectrumAmp()
+
+    // New correction chain, with A-weighting as a stage that is off until setAWeighting(true)
+    private void initCorrection(int fftlen, double sampleRate) {
+        double[] dBAFactor = new double[fftlen/2+1];
+        for (int i = 0; i < fftlen/2+1; i++) {
+            dBAFactor[i] = aWeightingPowerFactor((double)i/fftlen * sampleRate);
         }
-        wndEnergyFactor = wnd.length / wndEnergyFactor;
+        correction = new SpectralCorrection(fftlen/2+1);
+        correction.setEnabled(SpectralCorrection.A_WEIGHTING, false);
+        correction.setStage(SpectralCorrection.A_WEIGHTING, dBAFactor);
+    }
+
+    // A-weighting at frequency f, as a power ratio
+    static double aWeightingPowerFactor(double f) {
+        double r = 12200*12200 * (f*f)*(f*f) / ((f*f+20.6*20.6) * sqrt((f*f+107.7*107.7) * (f*f+737.9*737.9)) * (f*f+12200*12200));
+        return r*r*1.58489319246111;  // 1.58489319246111 = 10^(1/5)
+    }
+
+    // Shared table, see WindowFunction. Not modified here.
+    private void initWindowFunction(int fftlen, String wndName) {
+        WindowFunction.Table t = WindowFunction.get(wndName, fftlen);
+        wnd = t.wnd;
+        wndEnergyFactor = t.wndEnergyFactor;
     }
 
     void setAWeighting(boolean e_isAWeighting) {
-        boolAWeighting = e_isAWeighting;
+        correction.setEnabled(SpectralCorrection.A_WEIGHTING, e_isAWeighting);
     }
 
     boolean getAWeighting() {
-        return boolAWeighting;
+        return correction.isEnabled(SpectralCorrection.A_WEIGHTING);
+    }
+
+    /** Corrections applied to getSpectrumAmp(), more stages can be added to it. */
+    SpectralCorrection getCorrection() {
+        return correction;
     }
 
-    private void init(int fftlen, int _hopLen, int sampleRate, int minFeedSize, String wndName) {
-        if (minFeedSize <= 0) {
-            throw new IllegalArgumentException("STFT::init(): should minFeedSize >= 1.");
+    /**
+     * Set how frames are averaged. For EXPONENTIAL and SLIDING, nAverage is the time
+     * constant or the window in frames, and getSpectrumAmp() has a new value every frame.
+     * The average restarts if anything changes.
+     */
+    void setAverage(AverageMode mode, double nAverage) {
+        if (nAverage < 1) {
+            throw new IllegalArgumentException("STFT::setAverage(): should nAverage >= 1.");
         }
-        if (((-fftlen)&fftlen) != fftlen) {
-            // error: fftlen should be power of 2
-            throw new IllegalArgumentException("STFT::init(): Currently, only power of 2 are supported in fftlen");
+        if (mode == averageMode && nAverage == this.nAverage) {
+            return;
         }
+        averageMode = mode;
+        this.nAverage = nAverage;
+        int outLen = fftLen/2+1;
+        framePower   = mode == AverageMode.BLOCK ? null : new double[outLen];
+        averagePower = mode == AverageMode.BLOCK ? null : new double[outLen];
+        slideRing    = mode == AverageMode.SLIDING ? new double[(int) round(nAverage)][outLen] : null;
+        slidePt = 0;
+        nAveraged = 0;
+        dropFramesInFlight();
+        Arrays.fill(spectrumAmpOutCum, 0.0);
+        nAnalysed = 0;
+    }
+
+    AverageMode getAverageMode() {
+        return averageMode;
+    }
+
+    /**
+     * Pass the complex spectrum of every frame to listener, null to stop. The frames are
+     * then transformed in place instead of straight to power, which costs one more pass
+     * over each spectrum. The power spectrum and its average are unchanged.
+     * The current frames are dropped, as in clear().
+     */
+    void setFrameListener(FrameListener listener) {
+        clear();
+        frameListener = listener;
+    }
+
+    /**
+     * Only transform the frames for the frame listener, for an STFT that is just a frame
+     * source, e.g. the second channel of CrossSpectrum. The power spectrum, its average and
+     * the RMS are then not computed: nElemSpectrumAmp() stays 0 and getRMS() stays 0.
+     * The current frames are dropped, as in clear().
+     */
+    void setFramesOnly(boolean framesOnly) {
+        clear();
+        this.framesOnly = framesOnly;
+        outRMS = 0;
+        cumRMS = 0;
+        cntRMS = 0;
+    }
+
+    /** A listener that passes each frame to a, then to b. Either may be null. */
+    static FrameListener chain(final FrameListener a, final FrameListener b) {
+        if (a == null || b == null) {
+            return a == null ? b : a;
+        }
+        return new FrameListener() {
+            @Override
+            public void onFrame(double[] spectrum, int offset) {
+                a.onFrame(spectrum, offset);
+                b.onFrame(spectrum, offset);
+            }
+        };
+    }
+
+    // power[k] += (2|X_k|/n)^2, (|X_k|/n)^2 at DC and n/2, as RealDoubleFFT.ftPower()
+    static void addPower(double[] h, int o, int n, double[] power) {
+        double scale = 4.0 / ((double) n * n);
+        power[0] += h[o]*h[o] * scale / 4;
+        int k = 1;
+        for (int i = o + 1; i < o + n - 1; i += 2, k++) {
+            power[k] += (h[i]*h[i] + h[i+1]*h[i+1]) * scale;
+        }
+        if (n % 2 == 0 && n > 1) {
+            power[k] += h[o+n-1]*h[o+n-1] * scale / 4;
+        }
+    }
+
+    /** Half the cores, for the big ones, up to MAX_WORKERS. */
+    static int workerCount() {
+        return max(1, min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    // One pool for all STFTs, the threads are daemons and idle between frames.
+    private static synchronized ExecutorService sharedWorkers() {
+        if (sharedWorkers == null) {
+            sharedWorkers = Executors.newFixedThreadPool(workerCount(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "STFT");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sharedWorkers;
+    }
+
+    /**
+     * Transform frames on a pool of workerCount() threads. Frames stay in flight across
+     * feedData() calls, so the workers also run while the caller waits for input. Each call
+     * publishes the finished frames in frame order, without waiting, and only waits when more
+     * than maxFramesInFlight() frames are in flight. So the spectra are the same, bit for bit,
+     * but may count up to maxFramesInFlight() fewer frames at a time.
+     */
+    void setParallel(boolean parallel) {
+        clear();
+        workers = parallel ? sharedWorkers() : null;
+        maxFramesInFlight = 2 * workerCount();
+        freeFrameTasks.clear();
+    }
+
+    /** Most frames not yet in nElemSpectrumAmp() after feedData() returns, in parallel mode. */
+    int maxFramesInFlight() {
+        return workers == null ? 0 : maxFramesInFlight;
+    }
+
+    /** Frames that one batched FFT takes, see flushFrames(). */
+    static int maxBatchFrames(int fftlen) {
+        return max(1, BATCH_MAX_SAMPLES / fftlen);
+    }
+
+    private void init(int fftlen, int _hopLen, int sampleRate, String wndName) {
+        if (fftlen < 2) {
+            throw new IllegalArgumentException("STFT::init(): should fftlen >= 2.");
+        }
+        // Any fftlen works. Powers of 2 are fastest, then products of 2, 3, 5, see RealDoubleFFT.
         this.sampleRate = sampleRate;
         fftLen = fftlen;
         hopLen = _hopLen;                          // 50% overlap by default
         spectrumAmpOutCum= new double[fftlen/2+1];
-        spectrumAmpOutTmp= new double[fftlen/2+1];
         spectrumAmpOut   = new double[fftlen/2+1];
         spectrumAmpOutDB = new double[fftlen/2+1];
+        // At high overlap one read chunk holds several frames, transform them in one batch.
+        maxFramesPending = maxBatchFrames(fftlen);
         spectrumAmpIn    = new double[fftlen];
-        spectrumAmpInTmp = new double[fftlen];
-        spectrumAmpFFT   = new RealDoubleFFT(spectrumAmpIn.length);
+        spectrumAmpInTmp = new double[fftlen * maxFramesPending];
+        spectrumAmpFFT   = new RealDoubleFFT(fftlen);
 //        spectrumAmpOutArray = new double[(int)ceil((double)minFeedSize / (fftlen/2))][]; // /2 since half overlap
 //        for (int i = 0; i < spectrumAmpOutArray.length; i++) {
 //            spectrumAmpOutArray[i] = new double[fftlen/2+1];
 //        }
 
         initWindowFunction(fftlen, wndName);
-        initDBAFactor(fftlen, sampleRate);
+        initCorrection(fftlen, sampleRate);
         clear();
-        boolAWeighting = false;
     }
 
     STFT(AnalyzerParameters analyzerParam) {
-        init(analyzerParam.fftLen, analyzerParam.hopLen, analyzerParam.sampleRate, analyzerParam.nFFTAverage, analyzerParam.wndFuncName);
-        if (analyzerParam.micGainDB != null) {
-            if (micGain == null || micGain.length != analyzerParam.micGainDB.length) {
-                micGain = new double[analyzerParam.micGainDB.length];
-            }
-            Log.w("STFT:", "calib loaded. micGain.length = " + micGain.length);
-            for (int i = 0; i < micGain.length; i++) {
-                micGain[i] = pow(10, analyzerParam.micGainDB[i] / 10.0);
+        this(analyzerParam, analyzerParam.fftLen, analyzerParam.hopLen);
+    }
+
+    /**
+     * STFT of length fftlen and hop hoplen, other settings from analyzerParam.
+     * analyzerParam.micGainDB is on the grid of analyzerParam.fftLen, the nearest point is used.
+     */
+    STFT(AnalyzerParameters analyzerParam, int fftlen, int hoplen) {
+        init(fftlen, hoplen, analyzerParam.analysisRate(), analyzerParam.wndFuncName);
+        if (analyzerParam.parallelSTFT) {
+            setParallel(true);
+        }
+        if (analyzerParam.micGainDB != null && analyzerParam.micGainDB.length != analyzerParam.fftLen/2+1) {
+            Log.w("STFT:", "calib ignored, micGainDB.length = " + analyzerParam.micGainDB.length);
+        } else if (analyzerParam.micGainDB != null) {
+            // No correction to phase.
+            // Correction to DC is fake.
+            double[] invMicGain = new double[fftlen/2+1];
+            Log.w("STFT:", "calib loaded. micGain.length = " + invMicGain.length);
+            double r = (double) analyzerParam.fftLen / fftlen;
+            for (int i = 0; i < invMicGain.length; i++) {
+                int j = min((int) round(i * r), analyzerParam.micGainDB.length - 1);
+                invMicGain[i] = pow(10, -analyzerParam.micGainDB[j] / 10.0);
             }
+            correction.setStage(SpectralCorrection.MIC_CALIBRATION, invMicGain);
         } else {
             Log.w("STFT:", "no calib");
         }
@@ -263,80 +362,229 @@ class STFT {
             Log.e("STFT", "dsLen > ds.length !");
             dsLen = ds.length;
         }
-        int inLen = spectrumAmpIn.length;
-        int outLen = spectrumAmpOut.length;
+        if (shortIn.length < dsLen) {
+            shortIn = new double[dsLen];
+        }
+        for (int i = 0; i < dsLen; i++) {
+            shortIn[i] = ds[i];
+        }
+        feedData(shortIn, dsLen);
+    }
+
+    /** Samples in the scale of short (a full scale sine has amplitude 32768), e.g. from Decimator. */
+    void feedData(double[] ds, int dsLen) {
+        if (dsLen > ds.length) {
+            Log.e("STFT", "dsLen > ds.length !");
+            dsLen = ds.length;
+        }
+        int inLen = fftLen;
         int dsPt = 0;           // input data point to be read
         while (dsPt < dsLen) {
             while (spectrumAmpPt < 0 && dsPt < dsLen) {  // skip data when hopLen > fftLen
                 double s = ds[dsPt++] / 32768.0;
                 spectrumAmpPt++;
-                cumRMS += s*s;
-                cntRMS++;
+                if (!framesOnly) {
+                    cumRMS += s*s;
+                    cntRMS++;
+                }
             }
             while (spectrumAmpPt < inLen && dsPt < dsLen) {
                 double s = ds[dsPt++] / 32768.0;
-                spectrumAmpIn[spectrumAmpPt++] = s;
-                cumRMS += s*s;
-                cntRMS++;
+                spectrumAmpIn[ringPt++] = s;
+                if (ringPt == inLen) ringPt = 0;
+                spectrumAmpPt++;
+                if (!framesOnly) {
+                    cumRMS += s*s;
+                    cntRMS++;
+                }
             }
             if (spectrumAmpPt == inLen) {    // enough data for one FFT
-                for (int i = 0; i < inLen; i++) {
-                    spectrumAmpInTmp[i] = spectrumAmpIn[i] * wnd[i];
+                // Oldest sample is at ringPt. Windowing is the only copy of the frame.
+                FrameTask task = workers == null ? null : obtainFrameTask();
+                int off = task == null ? nFramesPending * fftLen : 0;
+                int n1 = inLen - ringPt;     // samples from ringPt to end of ring
+                double[] in = spectrumAmpIn, out = task == null ? spectrumAmpInTmp : task.frame, w = wnd;
+                for (int i = 0; i < n1; i++) {
+                    out[off + i] = in[ringPt + i] * w[i];
                 }
-                spectrumAmpFFT.ft(spectrumAmpInTmp);
-                fftToAmp(spectrumAmpOutTmp, spectrumAmpInTmp);
-//                System.arraycopy(spectrumAmpOutTmp, 0, spectrumAmpOutArray[spectrumAmpOutArrayPt], 0,
-//                                 spectrumAmpOutTmp.length);
-//                spectrumAmpOutArrayPt = (spectrumAmpOutArrayPt+1) % spectrumAmpOutArray.length;
-                for (int i = 0; i < outLen; i++) {
-                    spectrumAmpOutCum[i] += spectrumAmpOutTmp[i];
+                for (int i = n1; i < inLen; i++) {
+                    out[off + i] = in[i - n1] * w[i];
                 }
-                nAnalysed++;
-                if (hopLen < fftLen) {
-                    System.arraycopy(spectrumAmpIn, hopLen, spectrumAmpIn, 0, fftLen - hopLen);
+                if (task != null) {
+                    task.keepSpectrum = frameListener != null || framesOnly;
+                    task.framesOnly = framesOnly;
+                    task.result = workers.submit(task);
+                    framesInFlight.add(task);
+                    if (framesInFlight.size() > maxFramesInFlight) {
+                        publishFrame(framesInFlight.poll());
+                    }
+                } else {
+                    nFramesPending++;
+                    if (nFramesPending == maxFramesPending) {
+                        flushFrames();
+                    }
                 }
                 spectrumAmpPt = fftLen - hopLen;  // can be positive and negative
             }
         }
+        flushFrames();
+        while (!framesInFlight.isEmpty() && framesInFlight.peek().result.isDone()) {
+            publishFrame(framesInFlight.poll());
+        }
+    }
+
+    private FrameTask obtainFrameTask() {
+        FrameTask t = freeFrameTasks.poll();
+        return t != null ? t : new FrameTask(fftLen);
     }
 
-    // Convert complex amplitudes to absolute amplitudes.
-    private void fftToAmp(double[] dataOut, double[] data) {
-        // data.length should be a even number
-        double scaler = 2.0*2.0 / (data.length * data.length);  // *2 since there are positive and negative frequency part
-        dataOut[0] = data[0]*data[0] * scaler / 4.0;
-        int j = 1;
-        for (int i = 1; i < data.length - 1; i += 2, j++) {
-            dataOut[j] = (data[i]*data[i] + data[i+1]*data[i+1]) * scaler;
+    // Add the power spectrum of the oldest frame in flight, waiting for it if needed.
+    private void publishFrame(FrameTask t) {
+        waitFor(t.result);
+        if (!t.framesOnly) {
+            if (averageMode == AverageMode.BLOCK) {
+                // p = 0 + scale*|X|^2, so this sums exactly as ftPower(..., accumulate = true)
+                final double[] cum = spectrumAmpOutCum, p = t.power;
+                for (int j = 0; j < cum.length; j++) {
+                    cum[j] += p[j];
+                }
+            } else {
+                addFrameToAverage(t.power);
+            }
+            nAnalysed++;
         }
-        dataOut[j] = data[data.length-1]*data[data.length-1] * scaler / 4.0;
+        if (t.keepSpectrum && frameListener != null) {
+            frameListener.onFrame(t.frame, 0);
+        }
+        t.result = null;
+        freeFrameTasks.add(t);
     }
 
-    final double[] getSpectrumAmp() {
-        if (nAnalysed != 0) {    // no new result
-            int outLen = spectrumAmpOut.length;
-            double[] sAOC = spectrumAmpOutCum;
-            for (int j = 0; j < outLen; j++) {
-                sAOC[j] /= nAnalysed;
+    // Wait even if interrupted, the frame buffer must be idle before reuse.
+    private static void waitFor(Future<Void> f) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                f.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new RuntimeException("STFT: frame failed.", e.getCause());
             }
-            if (micGain != null && micGain.length == sAOC.length) {
-                // No correction to phase.
-                // Correction to DC is fake.
-                for (int j = 0; j < outLen; j++) {
-                    sAOC[j] /= micGain[j];
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();  // leave it to the caller, e.g. SamplingLoop.finish()
+        }
+    }
+
+    // FFT all pending windowed frames in one call, accumulate their power spectra.
+    // The power is computed in the same pass that finishes each transform, see RealDoubleFFT.ftPower().
+    private void flushFrames() {
+        if (nFramesPending == 0) {
+            return;
+        }
+        if (frameListener != null || framesOnly) {
+            flushFramesKeepSpectrum();
+            return;
+        }
+        if (averageMode != AverageMode.BLOCK) {
+            for (int f = 0; f < nFramesPending; f++) {
+                spectrumAmpFFT.ftPower(spectrumAmpInTmp, f * fftLen, fftLen, 1, framePower, false);
+                addFrameToAverage(framePower);
+            }
+            nAnalysed += nFramesPending;
+            nFramesPending = 0;
+            return;
+        }
+        spectrumAmpFFT.ftPower(spectrumAmpInTmp, 0, fftLen, nFramesPending, spectrumAmpOutCum, true);
+        nAnalysed += nFramesPending;
+        nFramesPending = 0;
+    }
+
+    // As flushFrames(), with the spectra transformed in place and passed to frameListener.
+    private void flushFramesKeepSpectrum() {
+        spectrumAmpFFT.ft(spectrumAmpInTmp, 0, fftLen, nFramesPending);
+        if (framesOnly) {
+            for (int f = 0; f < nFramesPending; f++) {
+                if (frameListener != null) {
+                    frameListener.onFrame(spectrumAmpInTmp, f * fftLen);
                 }
             }
-            if (boolAWeighting) {
+            nFramesPending = 0;
+            return;
+        }
+        for (int f = 0; f < nFramesPending; f++) {
+            int o = f * fftLen;
+            double[] p = averageMode == AverageMode.BLOCK ? spectrumAmpOutCum : framePower;
+            if (averageMode != AverageMode.BLOCK) {
+                Arrays.fill(framePower, 0.0);
+            }
+            addPower(spectrumAmpInTmp, o, fftLen, p);
+            if (averageMode != AverageMode.BLOCK) {
+                addFrameToAverage(framePower);
+            }
+            frameListener.onFrame(spectrumAmpInTmp, o);
+        }
+        nAnalysed += nFramesPending;
+        nFramesPending = 0;
+    }
+
+    // EXPONENTIAL and SLIDING, one frame at a time.
+    private void addFrameToAverage(double[] p) {
+        final int outLen = p.length;
+        final double[] avg = averagePower;
+        if (averageMode == AverageMode.EXPONENTIAL) {
+            // 1/k for the first frames, so that the start is a plain mean instead of a rise from 0
+            if (nAveraged < nAverage) nAveraged++;
+            double alpha = 1.0 / min(nAveraged, nAverage);
+            for (int j = 0; j < outLen; j++) {
+                avg[j] += alpha * (p[j] - avg[j]);
+            }
+            return;
+        }
+        double[] old = slideRing[slidePt];
+        for (int j = 0; j < outLen; j++) {
+            avg[j] += p[j] - old[j];
+        }
+        System.arraycopy(p, 0, old, 0, outLen);
+        if (++slidePt == slideRing.length) {
+            slidePt = 0;
+            // Redo the sum once per turn, so that rounding errors of the running sum do not build up.
+            Arrays.fill(avg, 0.0);
+            for (double[] r : slideRing) {
                 for (int j = 0; j < outLen; j++) {
-                    sAOC[j] *= dBAFactor[j];
+                    avg[j] += r[j];
                 }
             }
-            System.arraycopy(sAOC, 0, spectrumAmpOut, 0, outLen);
-            Arrays.fill(sAOC, 0.0);
-            nAnalysed = 0;
-            for (int i = 0; i < outLen; i++) {
-                spectrumAmpOutDB[i] = 10.0 * log10(spectrumAmpOut[i]);
+        }
+        if (nAveraged < slideRing.length) nAveraged++;
+    }
+
+    final double[] getSpectrumAmp() {
+        if (nAnalysed != 0) {    // no new result
+            final int outLen = spectrumAmpOut.length;
+            // averaging normalization times the compiled corrections, in one pass with the dB
+            final double[] src;
+            final double scale;
+            if (averageMode == AverageMode.BLOCK) {
+                src = spectrumAmpOutCum;
+                scale = 1.0 / nAnalysed;
+            } else {
+                src = averagePower;
+                scale = averageMode == AverageMode.EXPONENTIAL ? 1.0 : 1.0 / nAveraged;
+            }
+            final double[] g = correction.getGain();
+            final double[] out = spectrumAmpOut, outDB = spectrumAmpOutDB;
+            for (int j = 0; j < outLen; j++) {
+                double v = max(0.0, src[j] * scale * g[j]);  // a SLIDING running sum may round below 0
+                out[j] = v;
+                outDB[j] = 10.0 * log10(v);
+            }
+            if (averageMode == AverageMode.BLOCK) {
+                Arrays.fill(spectrumAmpOutCum, 0.0);
             }
+            nAnalysed = 0;
         }
         return spectrumAmpOut;
     }
@@ -356,14 +604,30 @@ class STFT {
     }
 
     double getRMSFromFT() {
+        return getRMSFromFT(0, Double.MAX_VALUE);
+    }
+
+    // getSpectrumAmp() times this sums to the mean square (sine normalized), see getRMSFromFT().
+    double getWndEnergyFactor() {
+        return wndEnergyFactor;
+    }
+
+    // RMS of bins with centre frequency in [fLow, fHigh), DC excluded.
+    double getRMSFromFT(double fLow, double fHigh) {
         getSpectrumAmpDB();
         double s = 0;
-        for (int i = 1; i < spectrumAmpOut.length; i++) {
+        int iEnd = binBegin(fHigh);
+        for (int i = max(1, binBegin(fLow)); i < iEnd; i++) {
             s += spectrumAmpOut[i];
         }
         return sqrt(s * wndEnergyFactor);
     }
 
+    // first bin with centre frequency >= f
+    private int binBegin(double f) {
+        return (int) min(spectrumAmpOut.length, max(0, Math.ceil(f * fftLen / sampleRate)));
+    }
+
     int nElemSpectrumAmp() {
       return nAnalysed;
     }
@@ -371,11 +635,17 @@ class STFT {
     double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
 
     void calculatePeak() {
+        calculatePeak(0, Double.MAX_VALUE);
+    }
+
+    // Peak among bins with centre frequency in [fLow, fHigh).
+    void calculatePeak(double fLow, double fHigh) {
         getSpectrumAmpDB();
         // Find and show peak amplitude
         maxAmpDB  = 20 * log10(0.125/32768);
         maxAmpFreq = 0;
-        for (int i = 1; i < spectrumAmpOutDB.length; i++) {  // skip the direct current term
+        int iEnd = binBegin(fHigh);
+        for (int i = max(1, binBegin(fLow)); i < iEnd; i++) {  // skip the direct current term
             if (spectrumAmpOutDB[i] > maxAmpDB) {
                 maxAmpDB  = spectrumAmpOutDB[i];
                 maxAmpFreq = i;
@@ -407,11 +677,34 @@ class STFT {
         }
     }
 
+    // Wait for the workers and discard their frames.
+    private void dropFramesInFlight() {
+        while (!framesInFlight.isEmpty()) {
+            FrameTask t = framesInFlight.poll();
+            waitFor(t.result);
+            t.result = null;
+            freeFrameTasks.add(t);
+        }
+    }
+
     void clear() {
+        dropFramesInFlight();
         spectrumAmpPt = 0;
+        ringPt = 0;
+        nFramesPending = 0;
         Arrays.fill(spectrumAmpOut, 0.0);
         Arrays.fill(spectrumAmpOutDB, log10(0));
         Arrays.fill(spectrumAmpOutCum, 0.0);
+        if (averagePower != null) {
+            Arrays.fill(averagePower, 0.0);
+        }
+        if (slideRing != null) {
+            for (double[] r : slideRing) {
+                Arrays.fill(r, 0.0);
+            }
+        }
+        slidePt = 0;
+        nAveraged = 0;
 //        for (int i = 0; i < spectrumAmpOutArray.length; i++) {
 //            Arrays.fill(spectrumAmpOutArray[i], 0.0);
 //        }
@@ -22,7 +22,15 @@ import android.os.Build;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Read a snapshot of audio data at a regular interval, and compute the FFT
@@ -42,7 +50,18 @@ class SamplingLoop extends Thread {
     private final String TAG = "SamplingLoop";
     private volatile boolean isRunning = true;
     private volatile boolean isPaused1 = false;
-    private STFT stft;   // use with care
+    private MultiResolutionSTFT stft;   // use with care
+    private ConstantQTransform cqt;     // null unless analyzerParam.constantQ
+    private PeakDetector peaks;         // null unless analyzerParam.nPeakMarkers > 0
+    private ToneTracker tones;          // null unless analyzerParam.toneFreqs
+    private PitchTracker pitch;         // null unless analyzerParam.pitchTracking
+    private WeightingFilter weighting;  // null unless analyzerParam.rmsWeighting
+    private OctaveBands octave;         // null unless analyzerParam.octaveFraction > 0
+    private SpectrumSmoother smoother;  // null unless analyzerParam.smoothingFraction > 0
+    private CrossSpectrum cross;        // null unless analyzerParam.transfer, then the capture is stereo
+    private FFTConvolver lowCut;        // null unless analyzerParam.lowCutFreq > 0, applied to both channels
+    private PeakDetector transferPeak;  // peak of |H| for the peak label, null unless cross
+    private ZoomFFT zoom;               // null unless analyzerParam.zoomFFT and the spectrum view is zoomed in
     private final AnalyzerParameters analyzerParam;
 
     private SineGenerator sineGen1;
@@ -102,6 +121,61 @@ class SamplingLoop extends Thread {
         }
     }
 
+    // Right channel of stereo capture: decimated and fed to its STFT on another thread,
+    // while this thread analyses the left one. The frames go to cross.
+    private static class ChannelTask implements Callable<Void> {
+        final STFT stft;
+        final Decimator decimator;    // factor 1 if no decimation
+        final FFTConvolver lowCut;    // null if off, else the same filter as the left channel
+        final double[] decimated;
+        short[] samples;
+        int nSamples;
+
+        ChannelTask(STFT stft, Decimator decimator, FFTConvolver lowCut, double[] decimated) {
+            this.stft = stft;
+            this.decimator = decimator;
+            this.lowCut = lowCut;
+            this.decimated = decimated;
+        }
+
+        @Override
+        public Void call() {
+            int n = decimator.process(samples, nSamples, decimated);
+            if (lowCut != null) {
+                lowCut.process(decimated, 0, decimated, 0, n);
+            }
+            stft.feedData(decimated, n);
+            return null;
+        }
+    }
+
+    // Wait even if interrupted, the channel must be idle before its buffers are reused.
+    private static void waitFor(Future<Void> f) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                f.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new RuntimeException("SamplingLoop: right channel failed.", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();  // seen by the main loop, see finish()
+        }
+    }
+
+    // Split interleaved left, right samples, nFrames pairs. Returns nFrames.
+    private static int deinterleave(short[] lr, int nFrames, short[] left, short[] right) {
+        for (int i = 0, j = 0; i < nFrames; i++, j += 2) {
+            left[i] = lr[j];
+            right[i] = lr[j+1];
+        }
+        return nFrames;
+    }
+
     private double[] mdata;
 
     // Generate test data.
@@ -133,6 +207,37 @@ class SamplingLoop extends Thread {
         return sizeInShorts;
     }
 
+    // Follow the visible frequency range of the spectrum plot. A new band restarts the zoom FFT,
+    // so it is only retuned when the view leaves the band or is zoomed in twice or more.
+    private void updateZoomBand() {
+        AnalyzerGraphic graphView = activity.analyzerViews.graphView;
+        int d = 1;
+        double[] r = null;
+        if (graphView.getShowMode() == AnalyzerGraphic.PlotMode.SPECTRUM) {
+            r = graphView.getViewPhysicalRange();
+            r[0] = Math.max(r[0], 0);
+            r[1] = Math.min(r[1], analyzerParam.analysisRate() / 2.0);
+            d = ZoomFFT.decimationFor(analyzerParam.analysisRate(), r[1] - r[0], ZoomFFT.DEFAULT_FFT_LEN);
+        }
+        if (d < ZoomFFT.MIN_DECIMATION) {
+            if (zoom != null) {
+                zoom = null;
+                activity.analyzerViews.updateZoom(null, null);
+                activity.analyzerViews.updateZoomFill(1);
+            }
+            return;
+        }
+        if (zoom != null && r[0] >= zoom.getFreqLow() && r[1] <= zoom.getFreqHigh()
+                && d < 2 * zoom.getDecimation()) {
+            return;
+        }
+        zoom = new ZoomFFT(analyzerParam, r[0], r[1]);
+        zoom.setAWeighting(analyzerParam.isAWeighting);
+        activity.analyzerViews.updateZoom(null, null);
+        Log.i(TAG, "zoom FFT: " + zoom.getFreqLow() + " - " + zoom.getFreqHigh() + " Hz, decimation "
+                + zoom.getDecimation() + ", taps " + zoom.nTaps());
+    }
+
     @Override
     public void run() {
         AudioRecord record;
@@ -150,7 +255,10 @@ class SamplingLoop extends Thread {
             SleepWithoutInterrupt(500 - (tEnd - tStart));
         }
 
-        int minBytes = AudioRecord.getMinBufferSize(analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
+        // Stereo for the transfer function: left is the reference, right the measurement.
+        final int nChannels = analyzerParam.transfer == null ? 1 : 2;
+        final int channelConfig = nChannels == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+        int minBytes = AudioRecord.getMinBufferSize(analyzerParam.sampleRate, channelConfig,
                 AudioFormat.ENCODING_PCM_16BIT);
         if (minBytes == AudioRecord.ERROR_BAD_VALUE) {
             Log.e(TAG, "SamplingLoop::run(): Invalid AudioRecord parameter.\n");
@@ -163,9 +271,13 @@ class SamplingLoop extends Thread {
              inferior to the total recording buffer size.
          */
         // Determine size of buffers for AudioRecord and AudioRecord::read()
-        int readChunkSize    = analyzerParam.hopLen;  // Every hopLen one fft result (overlapped analyze window)
+        int decimation       = analyzerParam.getDecimation();
+        int readChunkSize    = analyzerParam.hopLen * decimation;  // Every hopLen one fft result (overlapped analyze window)
         readChunkSize        = Math.min(readChunkSize, 2048);  // read in a smaller chunk, hopefully smaller delay
-        int bufferSampleSize = Math.max(minBytes / analyzerParam.BYTE_OF_SAMPLE, analyzerParam.fftLen/2) * 2;
+        if (readChunkSize == analyzerParam.hopLen * decimation) {
+            readChunkSize   *= analyzerParam.hopsPerRead();
+        }
+        int bufferSampleSize = Math.max(minBytes / analyzerParam.BYTE_OF_SAMPLE / nChannels, analyzerParam.fftLen/2) * 2;
         // tolerate up to about 1 sec.
         bufferSampleSize = (int)Math.ceil(1.0 * analyzerParam.sampleRate / bufferSampleSize) * bufferSampleSize;
 
@@ -174,11 +286,11 @@ class SamplingLoop extends Thread {
         // So choose a larger size (~1sec) so that overrun is unlikely.
         try {
             if (analyzerParam.audioSourceId < 1000) {
-                record = new AudioRecord(analyzerParam.audioSourceId, analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                        AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize);
+                record = new AudioRecord(analyzerParam.audioSourceId, analyzerParam.sampleRate, channelConfig,
+                        AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize * nChannels);
             } else {
-                record = new AudioRecord(analyzerParam.RECORDER_AGC_OFF, analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                        AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize);
+                record = new AudioRecord(analyzerParam.RECORDER_AGC_OFF, analyzerParam.sampleRate, channelConfig,
+                        AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize * nChannels);
             }
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Fail to initialize recorder.");
@@ -203,12 +315,26 @@ class SamplingLoop extends Thread {
         Log.i(TAG, "SamplingLoop::Run(): Starting recorder... \n" +
                 "  source          : " + analyzerParam.getAudioSourceName() + "\n" +
                 String.format("  sample rate     : %d Hz (request %d Hz)\n", record.getSampleRate(), analyzerParam.sampleRate) +
+                String.format("  channels        : %d\n", nChannels) +
                 String.format("  min buffer size : %d samples, %d Bytes\n", minBytes / analyzerParam.BYTE_OF_SAMPLE, minBytes) +
                 String.format("  buffer size     : %d samples, %d Bytes\n", bufferSampleSize, analyzerParam.BYTE_OF_SAMPLE*bufferSampleSize) +
                 String.format("  read chunk size : %d samples, %d Bytes\n", readChunkSize, analyzerParam.BYTE_OF_SAMPLE*readChunkSize) +
                 String.format("  FFT length      : %d\n", analyzerParam.fftLen) +
-                String.format("  nFFTAverage     : %d\n", analyzerParam.nFFTAverage));
+                String.format("  nFFTAverage     : %d\n", analyzerParam.nFFTAverage) +
+                String.format("  averageMode     : %s\n", analyzerParam.averageMode) +
+                String.format("  multiResolution : %b\n", analyzerParam.multiResolution) +
+                String.format("  parallelSTFT    : %b (%d workers)\n", analyzerParam.parallelSTFT, STFT.workerCount()) +
+                String.format("  zoomFFT         : %b\n", analyzerParam.zoomFFT) +
+                String.format("  tones           : %s\n", Arrays.toString(analyzerParam.toneFreqs)) +
+                String.format("  pitchTracking   : %b\n", analyzerParam.pitchTracking) +
+                String.format("  rmsWeighting    : %s\n", analyzerParam.rmsWeighting) +
+                String.format("  octaveFraction  : %d\n", analyzerParam.octaveFraction) +
+                String.format("  smoothing       : %d\n", analyzerParam.smoothingFraction) +
+                String.format("  transfer        : %s\n", analyzerParam.transfer) +
+                String.format("  decimation      : %d\n", decimation) +
+                String.format("  lowCutFreq      : %.0f Hz\n", analyzerParam.lowCutFreq));
         analyzerParam.sampleRate = record.getSampleRate();
+        decimation = analyzerParam.getDecimation();
 
         if (record.getState() == AudioRecord.STATE_UNINITIALIZED) {
             Log.e(TAG, "SamplingLoop::run(): Fail to initialize AudioRecord()");
@@ -219,9 +345,73 @@ class SamplingLoop extends Thread {
 
         short[] audioSamples = new short[readChunkSize];
         int numOfReadShort;
+        // Analysers see analysisSamples, at analyzerParam.analysisRate(). They are not rounded
+        // back to short, which would raise the noise floor of the decimated band.
+        Decimator decimator = new Decimator(decimation);
+        double[] analysisSamples = new double[readChunkSize / decimation + 1];
+        int numOfAnalysis;
+        // Stereo: the interleaved read, and the right channel. audioSamples holds the left one.
+        short[] interleaved = nChannels == 1 ? null : new short[2 * readChunkSize];
+        short[] audioSamplesRight = nChannels == 1 ? null : new short[readChunkSize];
+        if (decimation > 1) {
+            Log.i(TAG, String.format("SamplingLoop::run(): decimate to %d Hz, %.1f multiplications per sample",
+                    analyzerParam.analysisRate(), decimator.cost()));
+        }
+        lowCut = null;
+        if (analyzerParam.lowCutFreq > 0 && analyzerParam.lowCutFreq < analyzerParam.analysisRate() / 4.0) {
+            lowCut = FFTConvolver.highPass(analyzerParam.lowCutFreq, analyzerParam.analysisRate());
+            Log.i(TAG, String.format("SamplingLoop::run(): low cut at %.0f Hz, delay %d samples",
+                    analyzerParam.lowCutFreq, lowCut.getLatency()));
+        } else if (analyzerParam.lowCutFreq > 0) {
+            Log.w(TAG, "SamplingLoop::run(): low cut ignored, above a quarter of the analysis rate.");
+        }
 
-        stft = new STFT(analyzerParam);
+        stft = new MultiResolutionSTFT(analyzerParam);
         stft.setAWeighting(analyzerParam.isAWeighting);
+        int nAverageSet = analyzerParam.nFFTAverage;
+        stft.setAverage(analyzerParam.averageMode, nAverageSet);
+        cqt = analyzerParam.constantQ ? new ConstantQTransform(analyzerParam, stft.getCorrection()) : null;
+        double[] constantQDBcopy = cqt == null ? null : new double[cqt.nBins()];
+        tones = analyzerParam.toneFreqs == null ? null : new ToneTracker(analyzerParam, analyzerParam.toneFreqs);
+        if (tones != null) {
+            tones.setAWeighting(analyzerParam.isAWeighting);
+        }
+        activity.analyzerViews.updateTones(null, null, null);
+        activity.analyzerViews.updateZoomFill(1);
+        // The pitch and the octave bands would describe the left channel only, not |H|.
+        pitch = analyzerParam.pitchTracking && analyzerParam.transfer == null ? new PitchTracker(analyzerParam) : null;
+        activity.pitchFreq = Double.NaN;
+        weighting = analyzerParam.rmsWeighting == null ? null
+                : new WeightingFilter(analyzerParam.rmsWeighting, analyzerParam.analysisRate());
+        activity.analyzerViews.setRMSWeighting(analyzerParam.rmsWeighting);
+        octave = analyzerParam.octaveFraction > 0 && analyzerParam.transfer == null
+                ? new OctaveBands(analyzerParam.octaveFraction, analyzerParam.fftLen, analyzerParam.analysisRate()) : null;
+        activity.analyzerViews.updateOctaveBands(0, null, null, null);
+        smoother = analyzerParam.smoothingFraction > 0
+                ? new SpectrumSmoother(analyzerParam.smoothingFraction, analyzerParam.fftLen/2+1) : null;
+        peaks = analyzerParam.nPeakMarkers > 0 ? new PeakDetector(analyzerParam.nPeakMarkers, 20 * Math.log10(0.125/32768)) : null;
+        activity.analyzerViews.updatePeaks(0, null, null, null);
+        cross = analyzerParam.transfer == null ? null : new CrossSpectrum(analyzerParam.fftLen);
+        transferPeak = cross == null ? null : new PeakDetector(1, Double.NEGATIVE_INFINITY);
+        activity.maxAmpLabel = cross == null ? R.string.text_peak : R.string.text_transfer_peak;
+        ChannelTask channelRight = null;
+        double[] coherence = null;
+        if (cross != null) {
+            cross.setAverage(analyzerParam.averageMode, nAverageSet);
+            STFT stftRight = new STFT(analyzerParam);
+            stftRight.setFrameListener(cross.inputY);
+            stftRight.setFramesOnly(true);  // only CrossSpectrum reads this channel
+            channelRight = new ChannelTask(stftRight, new Decimator(decimation),
+                    lowCut == null ? null : FFTConvolver.highPass(analyzerParam.lowCutFreq, analyzerParam.analysisRate()),
+                    new double[readChunkSize / decimation + 1]);
+            coherence = new double[cross.nBins()];
+        }
+        // CQT and the transfer function work on the complex frames of the STFT
+        STFT.FrameListener frameListener = STFT.chain(cross == null ? null : cross.inputX, cqt == null ? null : cqt.input);
+        if (frameListener != null) {
+            stft.setFrameListener(frameListener);
+        }
+        activity.analyzerViews.updateCoherence(null);
         if (spectrumDBcopy == null || spectrumDBcopy.length != analyzerParam.fftLen/2+1) {
             spectrumDBcopy = new double[analyzerParam.fftLen/2+1];
         }
@@ -239,6 +429,13 @@ class SamplingLoop extends Thread {
             wavSec = 0;
             Log.i(TAG, "PCM write to file " + wavWriter.getPath());
         }
+        Writer bandLog = null;           // band levels next to the wav file
+        StringBuilder bandLogRow = null;
+        if (bSaveWavLoop && octave != null) {
+            bandLogRow = new StringBuilder();
+            octave.appendCsvHeader(bandLogRow);
+            bandLog = openBandLog(wavWriter.getPath().replaceAll("\\.wav$", "") + "_bands.csv", bandLogRow);
+        }
 
         // Start recording
         try {
@@ -249,16 +446,25 @@ class SamplingLoop extends Thread {
             return;
         }
 
+        ExecutorService channelWorker = channelRight == null ? null : Executors.newSingleThreadExecutor();
+
         // Main loop
         // When running in this loop (including when paused), you can not change properties
         // related to recorder: e.g. audioSourceId, sampleRate, bufferSampleSize
         // TODO: allow change of FFT length on the fly.
         while (isRunning) {
-            // Read data
+            // Read data, analyzerParam.hopsPerRead() hops at a time (usually one).
+            int nRead = readChunkSize;
             if (analyzerParam.audioSourceId >= 1000) {
-                numOfReadShort = readTestData(audioSamples, 0, readChunkSize, analyzerParam.audioSourceId);
+                numOfReadShort = readTestData(audioSamples, 0, nRead, analyzerParam.audioSourceId);
+                if (interleaved != null) {
+                    System.arraycopy(audioSamples, 0, audioSamplesRight, 0, numOfReadShort);  // same signal, H = 1
+                }
+            } else if (interleaved != null) {
+                int n = record.read(interleaved, 0, 2 * nRead);
+                numOfReadShort = n < 0 ? n : deinterleave(interleaved, n / 2, audioSamples, audioSamplesRight);
             } else {
-                numOfReadShort = record.read(audioSamples, 0, readChunkSize);   // pulling
+                numOfReadShort = record.read(audioSamples, 0, nRead);   // pulling
             }
             if ( recorderMonitor.updateState(numOfReadShort) ) {  // performed a check
                 if (recorderMonitor.getLastCheckOverrun())
@@ -277,29 +483,134 @@ class SamplingLoop extends Thread {
                 continue;
             }
 
-            stft.feedData(audioSamples, numOfReadShort);
+            numOfAnalysis = decimator.process(audioSamples, numOfReadShort, analysisSamples);
+            if (lowCut != null) {
+                lowCut.process(analysisSamples, 0, analysisSamples, 0, numOfAnalysis);
+            }
+
+            if (nAverageSet != analyzerParam.nFFTAverage) {
+                nAverageSet = analyzerParam.nFFTAverage;
+                stft.setAverage(analyzerParam.averageMode, nAverageSet);
+                if (cross != null) {
+                    cross.setAverage(analyzerParam.averageMode, nAverageSet);
+                }
+            }
+            Future<Void> rightDone = null;
+            if (channelRight != null) {
+                channelRight.samples = audioSamplesRight;
+                channelRight.nSamples = numOfReadShort;
+                rightDone = channelWorker.submit(channelRight);
+            }
+            stft.feedData(analysisSamples, numOfAnalysis);
+            if (zoom != null) {
+                zoom.feedData(analysisSamples, numOfAnalysis);
+            }
+            if (tones != null) {
+                tones.feedData(analysisSamples, numOfAnalysis);
+            }
+            if (weighting != null) {
+                weighting.feedData(analysisSamples, numOfAnalysis);
+            }
+            if (pitch != null) {
+                // independent of the STFT frames, one estimate per read on the newest samples
+                pitch.feedData(analysisSamples, numOfAnalysis);
+                if (pitch.nEstimates > 0) {
+                    activity.pitchFreq = pitch.freq;
+                    activity.pitchDB = pitch.db;
+                    activity.analyzerViews.updatePitch();
+                }
+            }
+
+            if (rightDone != null) {
+                waitFor(rightDone);
+            }
 
             // If there is new spectrum data, do plot
-            if (stft.nElemSpectrumAmp() >= analyzerParam.nFFTAverage) {
+            if (stft.nElemSpectrumAmp() >= analyzerParam.framesPerUpdate()) {
                 // Update spectrum or spectrogram
                 final double[] spectrumDB = stft.getSpectrumAmpDB();
                 System.arraycopy(spectrumDB, 0, spectrumDBcopy, 0, spectrumDB.length);
-                activity.analyzerViews.update(spectrumDBcopy);
+                if (cqt != null) {
+                    final double[] cqDB = cqt.getSpectrumAmpDB();
+                    System.arraycopy(cqDB, 0, constantQDBcopy, 0, cqDB.length);
+                }
+                if (analyzerParam.zoomFFT) {
+                    updateZoomBand();
+                    if (zoom != null && zoom.nElemSpectrumAmp() > 0) {
+                        activity.analyzerViews.updateZoom(zoom.getSpectrumAmpDB(), zoom.getFreqs());
+                        zoom.calculatePeak();
+                    }
+                    if (zoom != null) {
+                        activity.analyzerViews.updateZoomFill(zoom.getFillFraction());
+                    }
+                }
+                if (cross != null) {
+                    // transfer function view: |H| in dB in place of the spectrum, and the coherence
+                    cross.update();
+                    cross.transferDB(analyzerParam.transfer, spectrumDBcopy);
+                    cross.coherence(coherence);
+                    activity.analyzerViews.updateCoherence(coherence);
+                } else if (smoother != null) {
+                    // display only, stft.calculatePeak() and the octave bands use the raw spectrum
+                    smoother.smoothDB(stft.getBinPower(), 1 / stft.getWndEnergyFactor(), spectrumDBcopy);
+                }
+                if (octave != null) {
+                    octave.compute(stft.getBinPower());
+                    activity.analyzerViews.updateOctaveBands(octave.nBands(), octave.bands.fLow, octave.bands.fHigh, octave.levelDB);
+                    if (bandLog != null) {
+                        bandLogRow.setLength(0);
+                        octave.appendCsvRow(bandLogRow, wavSec);
+                        bandLog = writeBandLog(bandLog, bandLogRow);
+                    }
+                }
+                if (peaks != null) {
+                    peaks.find(spectrumDBcopy, (double) analyzerParam.analysisRate() / analyzerParam.fftLen, 1, spectrumDBcopy.length);
+                    activity.analyzerViews.updatePeaks(peaks.nPeaks, peaks.freq, peaks.db, peaks.harmonic);
+                }
+                if (tones != null) {
+                    activity.analyzerViews.updateTones(tones.getFreqs(), tones.getAmplitudeDB(), tones.getPhase());
+                }
+                activity.analyzerViews.update(spectrumDBcopy, constantQDBcopy);
 //          fpsCounter.inc();
 
-                stft.calculatePeak();
-                activity.maxAmpFreq = stft.maxAmpFreq;
-                activity.maxAmpDB = stft.maxAmpDB;
+                if (transferPeak != null) {
+                    // the label reads the strongest peak of |H|, NaN if no bin has power on both channels
+                    boolean found = transferPeak.find(spectrumDBcopy, (double) analyzerParam.analysisRate() / analyzerParam.fftLen,
+                            1, spectrumDBcopy.length) > 0;
+                    activity.maxAmpFreq = found ? transferPeak.freq[0] : Double.NaN;
+                    activity.maxAmpDB = found ? transferPeak.db[0] : Double.NaN;
+                } else {
+                    stft.calculatePeak();
+                    activity.maxAmpFreq = stft.maxAmpFreq;
+                    activity.maxAmpDB = stft.maxAmpDB;
+                }
+                if (transferPeak == null && zoom != null && !Double.isNaN(zoom.maxAmpFreq)
+                        && stft.maxAmpFreq >= zoom.getFreqLow() && stft.maxAmpFreq <= zoom.getFreqHigh()) {
+                    // same peak, finer resolution
+                    activity.maxAmpFreq = zoom.maxAmpFreq;
+                    activity.maxAmpDB = zoom.maxAmpDB;
+                }
 
                 // get RMS
                 activity.dtRMS = stft.getRMS();
-                activity.dtRMSFromFT = stft.getRMSFromFT();
+                activity.dtRMSFromFT = weighting == null ? stft.getRMSFromFT() : weighting.getRMS();
             }
         }
+        stft.release();
+        if (channelWorker != null) {
+            channelWorker.shutdown();
+        }
         Log.i(TAG, "SamplingLoop::Run(): Actual sample rate: " + recorderMonitor.getSampleRate());
         Log.i(TAG, "SamplingLoop::Run(): Stopping and releasing recorder.");
         record.stop();
         record.release();
+        if (bandLog != null) {
+            try {
+                bandLog.close();
+            } catch (IOException e) {
+                Log.w(TAG, "SamplingLoop::Run(): Error closing band log.", e);
+            }
+        }
         if (bSaveWavLoop) {
             Log.i(TAG, "SamplingLoop::Run(): Ending saved wav.");
             wavWriter.stop();
@@ -307,10 +618,46 @@ class SamplingLoop extends Thread {
         }
     }
 
+    // CSV of OctaveBands levels, null if it can not be written.
+    private Writer openBandLog(String path, CharSequence header) {
+        try {
+            Writer w = new FileWriter(path);
+            w.append(header);
+            Log.i(TAG, "Band levels write to file " + path);
+            return w;
+        } catch (IOException e) {
+            Log.w(TAG, "openBandLog(): Error writing " + path, e);
+            return null;
+        }
+    }
+
+    // Returns null, after closing w, if the row can not be written.
+    private Writer writeBandLog(Writer w, CharSequence row) {
+        try {
+            w.append(row);
+            return w;
+        } catch (IOException e) {
+            Log.w(TAG, "writeBandLog(): Error writing band levels, stopped.", e);
+            try {
+                w.close();
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
     void setAWeighting(boolean isAWeighting) {
         if (stft != null) {
             stft.setAWeighting(isAWeighting);
         }
+        ZoomFFT z = zoom;
+        if (z != null) {
+            z.setAWeighting(isAWeighting);
+        }
+        ToneTracker t = tones;
+        if (t != null) {
+            t.setAWeighting(isAWeighting);
+        }
     }
 
     void setPause(boolean pause) {
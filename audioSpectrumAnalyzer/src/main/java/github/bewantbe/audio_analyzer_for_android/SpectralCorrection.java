@@ -0,0 +1,86 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per bin power gains applied to a spectrum, as a chain of named stages compiled into one vector.
+ *
+ * Each stage (microphone calibration, frequency weighting, a user EQ, ...) is a power ratio
+ * per bin and can be switched off without being dropped. The product of the enabled stages
+ * is rebuilt only when a stage changes, and is swapped in whole, so the reader (e.g. STFT
+ * in SamplingLoop) never sees a half built vector while the UI thread changes a stage.
+ * Applying the chain, together with a scalar such as the averaging normalization, is one
+ * multiplication per bin however many stages there are.
+ */
+class SpectralCorrection {
+    private static final String TAG = "SpectralCorrection:";
+    static final String MIC_CALIBRATION = "micCalibration";
+    static final String A_WEIGHTING = "aWeighting";
+
+    private final int nBins;
+    private final LinkedHashMap<String, double[]> stages = new LinkedHashMap<String, double[]>();
+    private final Set<String> disabled = new HashSet<String>();
+    private volatile double[] gain;      // product of the enabled stages
+
+    SpectralCorrection(int nBins) {
+        this.nBins = nBins;
+        gain = new double[nBins];
+        Arrays.fill(gain, 1.0);
+    }
+
+    /**
+     * Add or replace stage name with powerGain (nBins power ratios, copied), or remove it if
+     * powerGain is null. A new stage is enabled unless it was disabled before.
+     */
+    synchronized void setStage(String name, double[] powerGain) {
+        if (powerGain == null) {
+            if (stages.remove(name) != null) {
+                rebuild();
+            }
+            return;
+        }
+        if (powerGain.length != nBins) {
+            throw new IllegalArgumentException(TAG + " stage " + name + " has " + powerGain.length
+                    + " bins, expected " + nBins + ".");
+        }
+        stages.put(name, powerGain.clone());
+        rebuild();
+    }
+
+    synchronized void setEnabled(String name, boolean enabled) {
+        boolean changed = enabled ? disabled.remove(name) : disabled.add(name);
+        if (changed && stages.containsKey(name)) {
+            rebuild();
+        }
+    }
+
+    synchronized boolean isEnabled(String name) {
+        return stages.containsKey(name) && !disabled.contains(name);
+    }
+
+    private void rebuild() {
+        double[] g = new double[nBins];
+        Arrays.fill(g, 1.0);
+        for (Map.Entry<String, double[]> e : stages.entrySet()) {
+            if (disabled.contains(e.getKey())) continue;
+            double[] s = e.getValue();
+            for (int i = 0; i < nBins; i++) {
+                g[i] *= s[i];
+            }
+        }
+        gain = g;
+    }
+
+    /** The compiled gains. Do not modify. */
+    double[] getGain() {
+        return gain;
+    }
+
+    int nBins() {
+        return nBins;
+    }
+}
@@ -23,6 +23,7 @@ class SpectrogramBMP {
     private PlainLinearSpamBMP linBmp = new PlainLinearSpamBMP();
     private LogFreqSpectrogramBMP logBmp = new LogFreqSpectrogramBMP();
     private LogSegFreqSpectrogramBMP logSegBmp = new LogSegFreqSpectrogramBMP();
+    private ConstantQBMP cqBmp = null;   // used for log axis instead of logBmp/logSegBmp when set
 
     private int bmpWidthDefault = 1000;
     private int bmpWidthMax = 2000;
@@ -34,8 +35,20 @@ class SpectrogramBMP {
 
     private ScreenPhysicalMapping axisF = null;
 
+    // Centre frequencies of ConstantQTransform bins, or null to derive the log axis plot from linear bins.
+    void setConstantQFreqs(double[] freqs) {
+        synchronized (this) {
+            cqBmp = freqs == null ? null : new ConstantQBMP(freqs);
+        }
+    }
+
     void init(int _nFreq, int _nTime, ScreenPhysicalMapping _axis) {
         bmpWidth = calBmpWidth(_axis);
+        if (cqBmp != null) {
+            synchronized (this) {
+                cqBmp.init(_nTime);
+            }
+        }
         synchronized (this) {
             spectrumStore.init(_nFreq, _nTime);
         }
@@ -147,11 +160,14 @@ class SpectrogramBMP {
         return cma[levelFromDB(d, dBLowerBound, dBUpperBound, cma.length)] + 0xff000000;
     }
 
-    void fill(double[] db) {
+    // constantQDB: bins of ConstantQTransform, see setConstantQFreqs(). May be null.
+    void fill(double[] db, double[] constantQDB) {
         synchronized (this) {
             spectrumStore.fill(db);
             linBmp.fill(db);
-            if (logAxisMode == LogAxisPlotMode.REPLOT) {
+            if (cqBmp != null) {
+                if (constantQDB != null) cqBmp.fill(constantQDB);
+            } else if (logAxisMode == LogAxisPlotMode.REPLOT) {
                 logBmp.fill(db);
             } else {
                 logSegBmp.fill(db);
@@ -191,7 +207,11 @@ class SpectrogramBMP {
 //            c.restore();
 
             synchronized (this) {
-                if (logAxisMode == LogAxisPlotMode.REPLOT) {
+                if (cqBmp != null) {
+                    cqBmp.draw(c, showModeSpectrogram, axisF, logAxisMode == LogAxisPlotMode.REPLOT, smoothBmpPaint);
+                    pt = cqBmp.bmPt;
+                    lineLen = spectrumStore.nFreq;
+                } else if (logAxisMode == LogAxisPlotMode.REPLOT) {
                     // Draw in log, method: draw by axis
                     if (bNeedRebuildLogBmp) {
                         logBmp.rebuild(spectrumStore, axisF);
@@ -684,4 +704,79 @@ class SpectrogramBMP {
             }
         }
     }
+
+    // One column per constant-Q bin. The bins are uniform in log frequency, so on a log axis
+    // the whole bitmap is placed by one scale, no per pixel mapping or rebuild on zoom.
+    private class ConstantQBMP {
+        final static String TAG = "ConstantQBMP:";
+        final int nBins;
+        final double fLowEdge, fHighEdge;  // lower edge of first bin, upper edge of last bin
+        int nTime = 0;
+        int[] bm = new int[0];   // elements are in "time major" order.
+        int[] bmShiftCache = new int[0];
+        int bmPt = 0;
+
+        ConstantQBMP(double[] freqs) {
+            nBins = freqs.length;
+            double halfBin = nBins > 1 ? Math.sqrt(freqs[1] / freqs[0]) : 1;
+            fLowEdge  = freqs[0] / halfBin;
+            fHighEdge = freqs[nBins - 1] * halfBin;
+        }
+
+        void init(int _nTime) {
+            if (bm.length != nBins * _nTime) {
+                bm = new int[nBins * _nTime];
+                bmShiftCache = new int[bm.length];
+                bmPt = 0;
+            }
+            nTime = _nTime;
+        }
+
+        void fill(double[] db) {
+            if (db.length != nBins || nTime == 0) {
+                Log.e(TAG, "fill(): WTF");
+                return;
+            }
+            int bmP0 = bmPt * nBins;
+            for (int i = 0; i < nBins; i++) {
+                bm[bmP0 + i] = colorFromDB(db[i]);
+            }
+            bmPt++;
+            if (bmPt >= nTime) bmPt = 0;
+        }
+
+        // Canvas is in linear BMP units (spectrumStore.nFreq wide), as for the other log plots.
+        void draw(Canvas c, SpectrogramPlot.TimeAxisMode showModeSpectrogram, ScreenPhysicalMapping axisFreq,
+                  boolean replot, Paint smoothBmpPaint) {
+            if (bm.length == 0 || axisFreq == null || axisFreq.nCanvasPixel == 0) return;
+            double p1, p2;
+            if (replot) {  // canvas is not zoomed, see SpectrogramPlot.drawSpectrogramPlot()
+                ScreenPhysicalMapping axis = new ScreenPhysicalMapping(axisFreq);
+                if (axis.vLowerBound > axis.vUpperBound) {
+                    axis.reverseBounds();
+                }
+                p1 = axis.pixelFromV(fLowEdge);
+                p2 = axis.pixelFromV(fHighEdge);
+            } else {
+                p1 = axisFreq.pixelNoZoomFromV(fLowEdge);
+                p2 = axisFreq.pixelNoZoomFromV(fHighEdge);
+                if (axisFreq.vLowerBound > axisFreq.vUpperBound) {
+                    p1 = axisFreq.nCanvasPixel - p1;
+                    p2 = axisFreq.nCanvasPixel - p2;
+                }
+            }
+            double unit = spectrumStore.nFreq / axisFreq.nCanvasPixel;  // canvas units per pixel
+            int[] bmTmp = bm;
+            if (showModeSpectrogram == SpectrogramPlot.TimeAxisMode.SHIFT) {
+                System.arraycopy(bm, 0, bmShiftCache, (nTime - bmPt) * nBins, bmPt * nBins);
+                System.arraycopy(bm, bmPt * nBins, bmShiftCache, 0, (nTime - bmPt) * nBins);
+                bmTmp = bmShiftCache;
+            }
+            c.save();
+            c.translate((float)(p1 * unit), 0.0f);
+            c.scale((float)((p2 - p1) * unit / nBins), 1f);
+            c.drawBitmap(bmTmp, 0, nBins, 0.0f, 0.0f, nBins, nTime, false, smoothBmpPaint);
+            c.restore();
+        }
+    }
 }
@@ -109,10 +109,10 @@ class SpectrogramPlot {
 
     // Before calling this, axes should be initialized.
     void setupSpectrogram(AnalyzerParameters analyzerParam) {
-        int sampleRate       = analyzerParam.sampleRate;
+        int sampleRate       = analyzerParam.analysisRate();
         int fftLen           = analyzerParam.fftLen;
         int hopLen           = analyzerParam.hopLen;
-        int nAve             = analyzerParam.nFFTAverage;
+        int nAve             = analyzerParam.framesPerUpdate();
         double timeDurationE = analyzerParam.spectrogramDuration;
 
         timeWatch = timeDurationE;
@@ -120,6 +120,7 @@ class SpectrogramPlot {
         timeInc     = (double)hopLen / sampleRate;  // time of each slice
         nFreqPoints = fftLen / 2;           // no direct current term
         nTimePoints = (int)Math.ceil(timeWatch / timeInc);
+        spectrogramBMP.setConstantQFreqs(analyzerParam.constantQ ? ConstantQTransform.defaultBinFreqs(sampleRate) : null);
         spectrogramBMP.init(nFreqPoints, nTimePoints, axisFreq);
         Log.i(TAG, "setupSpectrogram() done" +
                 "\n  sampleRate    = " + sampleRate +
@@ -274,7 +275,8 @@ class SpectrogramPlot {
 
     // Will be called in another thread (SamplingLoop)
     // db.length == 2^n + 1
-    void saveRowSpectrumAsColor(final double[] db) {
+    // constantQDB may be null, see SpectrogramBMP.fill()
+    void saveRowSpectrumAsColor(final double[] db, final double[] constantQDB) {
         // For time compensate in shifting mode
         double tNow = System.currentTimeMillis()/1000.0;
         updateTimeDiff = true;
@@ -285,7 +287,7 @@ class SpectrogramPlot {
             timeLastSample += (tNow - timeLastSample) * 1e-2;  // track current time
         }
 
-        spectrogramBMP.fill(db);
+        spectrogramBMP.fill(db, constantQDB);
     }
 
     private float getLabelBeginY() {
@@ -20,6 +20,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.SystemClock;
@@ -37,7 +38,12 @@ import static java.lang.Math.round;
 class SpectrumPlot {
     private static final String TAG = "SpectrumPlot:";
     boolean showLines;
-    private Paint linePaint, linePaintLight, linePeakPaint;
+    private Paint linePaint, linePaintLight, linePeakPaint, lineZoomPaint;
+    private Paint toneMarkerPaint, toneLabelPaint;
+    private Paint peakMarkerPaint, peakLabelPaint;
+    private Paint octaveBarPaint;
+    private Paint coherencePaint;
+    private Paint zoomLabelPaint;
     private Paint cursorPaint;
     private Paint gridPaint;
     private Paint labelPaint;
@@ -65,6 +71,9 @@ class SpectrumPlot {
         linePeakPaint = new Paint(linePaint);
         linePeakPaint.setColor(0xFF00A0A0);
 
+        lineZoomPaint = new Paint(linePaint);
+        lineZoomPaint.setColor(Color.parseColor("#E2803A"));
+
         gridPaint = new Paint();
         gridPaint.setColor(Color.DKGRAY);
         gridPaint.setStyle(Paint.Style.STROKE);
@@ -83,6 +92,31 @@ class SpectrumPlot {
         calibLinePaint = new Paint(linePaint);
         calibLinePaint.setColor(Color.YELLOW);
 
+        toneMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        toneMarkerPaint.setColor(Color.parseColor("#C04DCF"));
+        toneMarkerPaint.setStyle(Paint.Style.STROKE);
+        toneMarkerPaint.setStrokeWidth(1.5f * DPRatio);
+        toneLabelPaint = new Paint(labelPaint);
+        toneLabelPaint.setColor(toneMarkerPaint.getColor());
+        toneLabelPaint.setTextSize(11.0f * DPRatio);
+
+        peakMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        peakMarkerPaint.setColor(Color.parseColor("#D0B020"));
+        peakMarkerPaint.setStyle(Paint.Style.FILL);
+        peakLabelPaint = new Paint(toneLabelPaint);
+        peakLabelPaint.setColor(peakMarkerPaint.getColor());
+        peakLabelPaint.setTextAlign(Paint.Align.CENTER);
+
+        octaveBarPaint = new Paint();
+        octaveBarPaint.setColor(Color.parseColor("#3AB3E2") & 0x66ffffff);
+        octaveBarPaint.setStyle(Paint.Style.FILL);
+
+        coherencePaint = new Paint(linePaint);
+        coherencePaint.setColor(Color.parseColor("#B040C0"));
+
+        zoomLabelPaint = new Paint(toneLabelPaint);
+        zoomLabelPaint.setColor(lineZoomPaint.getColor());
+
         cursorFreq = cursorDB = 0f;
 
         plot2D = new Plot2D(
@@ -122,6 +156,198 @@ class SpectrumPlot {
         name_calib = name;
     }
 
+    private final Object zoomLock = new Object();
+    private double[] zoomDB = null;     // ZoomFFT output, drawn over the spectrum
+    private double[] zoomFreqs = null;
+    private double[] zoomDBCache = null;
+    private double[] zoomFreqsCache = null;
+    private volatile String zoomLabel = null;  // e.g. while the zoom FFT fills its first frame
+
+    // db == null hides the zoom spectrum. Called from SamplingLoop.
+    void setZoomSpectrum(double[] db, double[] freqs) {
+        synchronized (zoomLock) {
+            if (db == null) {
+                zoomDB = null;
+                return;
+            }
+            if (zoomDB == null || zoomDB.length != db.length) {
+                zoomDB = new double[db.length];
+                zoomFreqs = new double[db.length];
+            }
+            System.arraycopy(db, 0, zoomDB, 0, db.length);
+            System.arraycopy(freqs, 0, zoomFreqs, 0, db.length);
+        }
+    }
+
+    // null hides the label. Called from SamplingLoop.
+    void setZoomLabel(String label) {
+        zoomLabel = label;
+    }
+
+    private final Object toneLock = new Object();
+    private double[] toneFreqs = null;  // ToneTracker output, marked on the spectrum
+    private double[] toneDB = null;
+    private double[] tonePhase = null;
+
+    // freqs == null hides the markers. Called from SamplingLoop.
+    void setToneMarkers(double[] freqs, double[] db, double[] phase) {
+        synchronized (toneLock) {
+            if (freqs == null) {
+                toneFreqs = null;
+                return;
+            }
+            if (toneFreqs == null || toneFreqs.length != freqs.length) {
+                toneFreqs = new double[freqs.length];
+                toneDB = new double[freqs.length];
+                tonePhase = new double[freqs.length];
+            }
+            System.arraycopy(freqs, 0, toneFreqs, 0, freqs.length);
+            System.arraycopy(db, 0, toneDB, 0, freqs.length);
+            System.arraycopy(phase, 0, tonePhase, 0, freqs.length);
+        }
+    }
+
+    // A circle at each tracked tone, labelled with its level and phase.
+    private void drawToneMarkers(Canvas c) {
+        synchronized (toneLock) {
+            if (toneFreqs == null) {
+                return;
+            }
+            float r = 4 * DPRatio;
+            for (int i = 0; i < toneFreqs.length; i++) {
+                if (Double.isInfinite(toneDB[i])) continue;
+                float x = (float) plot2D.axisX.pixelFromV(toneFreqs[i]);
+                float y = (float) plot2D.axisY.pixelFromV(toneDB[i]);
+                if (x < 0 || x > canvasWidth) continue;
+                c.drawCircle(x, y, r, toneMarkerPaint);
+                c.drawText(String.format("%.1fdB %.0f\u00B0", toneDB[i], Math.toDegrees(tonePhase[i])),
+                        x + r, y - r, toneLabelPaint);
+            }
+        }
+    }
+
+    private final Object peakLock = new Object();
+    private int nPeaks = 0;             // PeakDetector output, marked on the spectrum
+    private double[] peakFreqs = new double[0];
+    private double[] peakDB = new double[0];
+    private int[] peakHarmonic = new int[0];
+    private final Path peakPath = new Path();
+    private final StringBuilder peakLabel = new StringBuilder();
+
+    // n == 0 hides the markers. harmonic is 1 for a fundamental. Called from SamplingLoop.
+    void setPeakMarkers(int n, double[] freqs, double[] db, int[] harmonic) {
+        synchronized (peakLock) {
+            if (peakFreqs.length < n) {
+                peakFreqs = new double[n];
+                peakDB = new double[n];
+                peakHarmonic = new int[n];
+            }
+            if (n > 0) {
+                System.arraycopy(freqs, 0, peakFreqs, 0, n);
+                System.arraycopy(db, 0, peakDB, 0, n);
+                System.arraycopy(harmonic, 0, peakHarmonic, 0, n);
+            }
+            nPeaks = n;
+        }
+    }
+
+    // A triangle over each peak, labelled with the frequency of a fundamental or the harmonic number.
+    private void drawPeakMarkers(Canvas c) {
+        synchronized (peakLock) {
+            float r = 5 * DPRatio;
+            for (int i = 0; i < nPeaks; i++) {
+                float x = (float) plot2D.axisX.pixelFromV(peakFreqs[i]);
+                float y = (float) plot2D.axisY.pixelFromV(peakDB[i]) - r / 2;
+                if (x < 0 || x > canvasWidth) continue;
+                peakPath.rewind();
+                peakPath.moveTo(x, y);
+                peakPath.lineTo(x - r / 2, y - r);
+                peakPath.lineTo(x + r / 2, y - r);
+                peakPath.close();
+                c.drawPath(peakPath, peakMarkerPaint);
+                peakLabel.setLength(0);
+                if (peakHarmonic[i] <= 1) {
+                    SBNumFormat.fillInNumFixedWidthPositive(peakLabel, peakFreqs[i], 6, 1, '\0');
+                } else {
+                    peakLabel.append('x').append(peakHarmonic[i]);
+                }
+                c.drawText(peakLabel, 0, peakLabel.length(), x, y - 1.3f * r, peakLabelPaint);
+            }
+        }
+    }
+
+    private final Object octaveLock = new Object();
+    private int nOctaveBands = 0;       // OctaveBands output, bars behind the spectrum
+    private double[] octaveFLow = new double[0];
+    private double[] octaveFHigh = new double[0];
+    private double[] octaveDB = new double[0];
+
+    // n == 0 hides the bars. Called from SamplingLoop.
+    void setOctaveBands(int n, double[] fLow, double[] fHigh, double[] db) {
+        synchronized (octaveLock) {
+            if (octaveDB.length < n) {
+                octaveFLow = new double[n];
+                octaveFHigh = new double[n];
+                octaveDB = new double[n];
+            }
+            if (n > 0) {
+                System.arraycopy(fLow, 0, octaveFLow, 0, n);
+                System.arraycopy(fHigh, 0, octaveFHigh, 0, n);
+                System.arraycopy(db, 0, octaveDB, 0, n);
+            }
+            nOctaveBands = n;
+        }
+    }
+
+    // A bar from the bottom of the plot to the level of each band, as wide as the band.
+    private void drawOctaveBands(Canvas c) {
+        synchronized (octaveLock) {
+            for (int j = 0; j < nOctaveBands; j++) {
+                if (Double.isInfinite(octaveDB[j])) continue;
+                float x1 = (float) plot2D.axisX.pixelFromV(octaveFLow[j]);
+                float x2 = (float) plot2D.axisX.pixelFromV(octaveFHigh[j]);
+                if (x2 < 0 || x1 > canvasWidth) continue;
+                float y = (float) plot2D.axisY.pixelFromV(octaveDB[j]);
+                c.drawRect(x1 + 0.5f * DPRatio, y, x2 - 0.5f * DPRatio, canvasHeight, octaveBarPaint);
+            }
+        }
+    }
+
+    private final Object coherenceLock = new Object();
+    private double[] coherence = null;  // CrossSpectrum coherence, one per bin, null to hide
+    private double[] coherenceCache = null;
+
+    // null hides the line. Called from SamplingLoop.
+    void setCoherence(double[] coh) {
+        synchronized (coherenceLock) {
+            if (coh == null) {
+                coherence = null;
+                return;
+            }
+            if (coherence == null || coherence.length != coh.length) {
+                coherence = new double[coh.length];
+            }
+            System.arraycopy(coh, 0, coherence, 0, coh.length);
+        }
+    }
+
+    // Coherence 1 at the top of the plot and 0 at the bottom, whatever the dB range in view.
+    private void drawCoherence(Canvas c) {
+        synchronized (coherenceLock) {
+            if (coherence == null) {
+                return;
+            }
+            if (coherenceCache == null || coherenceCache.length != coherence.length) {
+                coherenceCache = new double[coherence.length];
+            }
+            double vTop = plot2D.axisY.vFromPixel(0), vBottom = plot2D.axisY.vFromPixel(canvasHeight);
+            for (int i = 0; i < coherence.length; i++) {
+                coherenceCache[i] = vBottom + coherence[i] * (vTop - vBottom);
+            }
+        }
+        plot2D.plotLineBar(c, coherenceCache, null, false, coherencePaint, null);
+    }
+
     private double[] db_cache = null;
     private AnalyzerUtil.PeakHoldAndFall peakHold = new AnalyzerUtil.PeakHoldAndFall();
     private long timeLastCall;
@@ -145,12 +371,38 @@ class SpectrumPlot {
         peakHold.addCurrentValue(db_cache, (timeNow - timeLastCall)/1000.0);
         timeLastCall = timeNow;
 
+        drawOctaveBands(c);
+
         // Spectrum peak hold
         plot2D.plotLineBar(c, peakHold.v_peak, null, false, linePeakPaint, null);
 
         // Spectrum line and bar
         plot2D.plotLineBar(c, db_cache, null, !showLines, linePaintLight, linePaint);
 
+        drawCoherence(c);
+
+        // Zoom FFT line
+        synchronized (zoomLock) {
+            if (zoomDB == null) {
+                zoomDBCache = null;
+            } else {
+                if (zoomDBCache == null || zoomDBCache.length != zoomDB.length) {
+                    zoomDBCache = new double[zoomDB.length];
+                    zoomFreqsCache = new double[zoomDB.length];
+                }
+                System.arraycopy(zoomDB, 0, zoomDBCache, 0, zoomDB.length);
+                System.arraycopy(zoomFreqs, 0, zoomFreqsCache, 0, zoomDB.length);
+            }
+        }
+        plot2D.plotLineBar(c, zoomDBCache, zoomFreqsCache, false, lineZoomPaint, null);
+        String label = zoomLabel;
+        if (label != null) {
+            c.drawText(label, 30*DPRatio, 2 * zoomLabelPaint.getTextSize(), zoomLabelPaint);
+        }
+
+        drawPeakMarkers(c);
+        drawToneMarkers(c);
+
         // Name of calibration curve.
         if (name_calib != null) {
             c.save();
@@ -0,0 +1,92 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import static java.lang.Math.floor;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+
+/**
+ * 1/N octave smoothing of a power spectrum in O(n) per frame.
+ *
+ * The output at bin i is the mean power over [i / r, i * r] bins, r = 2^(1/(2N)), where
+ * bin j stands for the interval [j - 1/2, j + 1/2). With the running sum C(x) of the
+ * power up to position x (linear inside a bin), that mean is (C(hi) - C(lo)) / (hi - lo).
+ * The window edges do not depend on the data and are precomputed per bin, so a frame is
+ * one pass for the prefix sums and one for the output, whatever the width of the windows.
+ * A window narrower than a bin (the lowest bins) gives the value of the bin.
+ *
+ * The prefix sums are compensated (Kahan), so a quiet window far above a loud bass bin
+ * keeps its precision.
+ */
+class SpectrumSmoother {
+    private static final String TAG = "SpectrumSmoother:";
+
+    private final int fraction;
+    private final int nBins;
+    private final int[] loBin, hiBin;          // bin holding each edge
+    private final double[] loFrac, hiFrac;     // position of the edge inside that bin, [0, 1)
+    private final double[] invWidth;           // 1 / (hi - lo), in bins
+    private final double[] prefix, prefixErr;  // sum of power of bins [0, j), and its rounding error
+
+    SpectrumSmoother(int fraction, int nBins) {
+        if (fraction < 1 || nBins < 1) {
+            throw new IllegalArgumentException(TAG + " need fraction >= 1 and nBins >= 1.");
+        }
+        this.fraction = fraction;
+        this.nBins = nBins;
+        loBin = new int[nBins];
+        hiBin = new int[nBins];
+        loFrac = new double[nBins];
+        hiFrac = new double[nBins];
+        invWidth = new double[nBins];
+        prefix = new double[nBins + 1];
+        prefixErr = new double[nBins + 1];
+        double r = pow(2, 1.0 / (2 * fraction));
+        double xMax = nBins - 0.5;                 // right edge of the last bin
+        for (int i = 0; i < nBins; i++) {
+            double lo = max(-0.5, i / r);
+            double hi = min(xMax, i * r);
+            if (hi - lo < 1) {                     // narrower than a bin, take the bin itself
+                lo = i - 0.5;
+                hi = i + 0.5;
+            }
+            // position x is in bin floor(x + 0.5), at fraction x + 0.5 - bin
+            loBin[i] = (int) floor(lo + 0.5);
+            loFrac[i] = lo + 0.5 - loBin[i];
+            hiBin[i] = min(nBins - 1, (int) floor(hi + 0.5));
+            hiFrac[i] = hi + 0.5 - hiBin[i];
+            invWidth[i] = 1 / (hi - lo);
+        }
+    }
+
+    int getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Smooth power (nBins values) and write 10 log10(scale * mean) to outDB.
+     * power and outDB may not be the same array.
+     */
+    void smoothDB(double[] power, double scale, double[] outDB) {
+        final int n = nBins;
+        final double[] c = prefix, e = prefixErr;
+        double s = 0, err = 0;
+        c[0] = 0;
+        e[0] = 0;
+        for (int j = 0; j < n; j++) {
+            double y = power[j] - err;
+            double t = s + y;
+            err = (t - s) - y;
+            s = t;
+            c[j+1] = s;
+            e[j+1] = err;
+        }
+        for (int i = 0; i < n; i++) {
+            int a = loBin[i], b = hiBin[i];
+            // C(hi) - C(lo) = (c[b] - c[a]) + hiFrac p[b] - loFrac p[a]
+            double d = (c[b] - c[a]) - (e[b] - e[a]) + hiFrac[i] * power[b] - loFrac[i] * power[a];
+            outDB[i] = 10.0 * log10(max(0.0, d * invWidth[i] * scale));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+import android.util.Log;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.atan2;
+import static java.lang.Math.cos;
+import static java.lang.Math.log10;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+
+/**
+ * Amplitude and phase of a fixed set of tones, updated every sample by sliding DFTs.
+ *
+ * For each tone at w and each of w - d, w + d (d = 2 pi / wndLen, one FFT bin) we keep
+ * S(w) = sum of x_m e^{-i w m} over the last wndLen samples, updated per sample by
+ * S += e^{-i w n} (x_n - x_{n-wndLen} e^{i w wndLen}). The three sums combine into the
+ * Hann windowed DFT at w, so leakage from other tones is that of the STFT's Hann window.
+ * Cost is O(number of tones) per sample and all tones share one ring of input samples.
+ * Frequencies need not be on the FFT grid.
+ *
+ * Phase is referred to the first sample fed: a tone A cos(w n + p) reads phase p, so a
+ * stable tone reads a constant phase, and a frequency offset shows as a phase drift.
+ * Amplitude follows STFT: a full scale sine is 0 dB.
+ */
+class ToneTracker {
+    private static final String TAG = "ToneTracker:";
+    static final int RESYNC_WINDOWS = 64;  // recompute the sums from the ring every this many windows
+
+    private final double[] freqs;
+    private final int wndLen;
+    private final double[] ring;       // last wndLen samples
+    private int ringPt = 0;
+    private final double[] oscRe, oscIm;     // e^{-i w n} for the next sample, 3 per tone: w - d, w, w + d
+    private final double[] rotRe, rotIm;     // e^{-i w}
+    private final double[] endRe, endIm;     // e^{i w wndLen}
+    private final double[] sRe, sIm;         // sliding sums
+    private final double[] gain;             // 1/micGain, power ratio
+    private final double[] gainA;            // A-weighting, power ratio
+    private boolean boolAWeighting = false;
+    private long nFed = 0;
+    private final double[] amplitudeDB, phase;
+
+    ToneTracker(AnalyzerParameters analyzerParam, double[] toneFreqs) {
+        this(analyzerParam.analysisRate(), toneFreqs, analyzerParam.fftLen);
+        int sampleRate = analyzerParam.analysisRate();
+        if (analyzerParam.micGainDB != null && analyzerParam.micGainDB.length == analyzerParam.fftLen/2+1) {
+            for (int i = 0; i < freqs.length; i++) {
+                int j = (int) min(analyzerParam.micGainDB.length - 1, round(freqs[i] * analyzerParam.fftLen / sampleRate));
+                gain[i] = pow(10, -analyzerParam.micGainDB[j] / 10.0);
+            }
+        }
+    }
+
+    /**
+     * @param toneFreqs frequencies in Hz, those outside (0, sampleRate/2) are dropped.
+     * @param wndLen    window length in samples, the resolution is that of an FFT of this length.
+     */
+    ToneTracker(int sampleRate, double[] toneFreqs, int wndLen) {
+        if (wndLen < 2) {
+            throw new IllegalArgumentException(TAG + " wndLen must be at least 2.");
+        }
+        int n = 0;
+        double[] f = new double[toneFreqs.length];
+        for (double t : toneFreqs) {
+            if (t > 0 && t < sampleRate / 2.0) {
+                f[n++] = t;
+            } else {
+                Log.w(TAG, "tone " + t + " Hz is out of (0, " + sampleRate / 2.0 + ") Hz, dropped.");
+            }
+        }
+        freqs = Arrays.copyOf(f, n);
+        this.wndLen = wndLen;
+        ring = new double[wndLen];
+        oscRe = new double[3 * n];
+        oscIm = new double[3 * n];
+        rotRe = new double[3 * n];
+        rotIm = new double[3 * n];
+        endRe = new double[3 * n];
+        endIm = new double[3 * n];
+        sRe = new double[3 * n];
+        sIm = new double[3 * n];
+        for (int i = 0; i < n; i++) {
+            double w = 2 * PI * freqs[i] / sampleRate;
+            double d = 2 * PI / wndLen;
+            for (int j = 0; j < 3; j++) {
+                double th = w + (j - 1) * d;
+                rotRe[3*i+j] = cos(th);
+                rotIm[3*i+j] = -sin(th);
+                endRe[3*i+j] = cos(th * wndLen);
+                endIm[3*i+j] = sin(th * wndLen);
+            }
+        }
+        gain = new double[n];
+        Arrays.fill(gain, 1.0);
+        gainA = new double[n];
+        for (int i = 0; i < n; i++) {
+            gainA[i] = STFT.aWeightingPowerFactor(freqs[i]);
+        }
+        amplitudeDB = new double[n];
+        phase = new double[n];
+        clear();
+    }
+
+    int nTones() {
+        return freqs.length;
+    }
+
+    /** Tracked frequencies. Do not modify. */
+    double[] getFreqs() {
+        return freqs;
+    }
+
+    void setAWeighting(boolean isAWeighting) {
+        boolAWeighting = isAWeighting;
+    }
+
+    void feedData(double[] ds, int dsLen) {
+        final int m = sRe.length;
+        final double[] oR = oscRe, oI = oscIm, rR = rotRe, rI = rotIm, eR = endRe, eI = endIm, sR = sRe, sI = sIm;
+        for (int k = 0; k < dsLen; k++) {
+            double x = ds[k] / 32768.0;
+            double xOld = ring[ringPt];
+            ring[ringPt] = x;
+            if (++ringPt == wndLen) ringPt = 0;
+            for (int j = 0; j < m; j++) {
+                double dr = x - xOld * eR[j];
+                double di = -xOld * eI[j];
+                double or = oR[j], oi = oI[j];
+                sR[j] += or * dr - oi * di;
+                sI[j] += or * di + oi * dr;
+                oR[j] = or * rR[j] - oi * rI[j];
+                oI[j] = or * rI[j] + oi * rR[j];
+            }
+            if (++nFed % ((long) RESYNC_WINDOWS * wndLen) == 0) {
+                resync();
+            }
+        }
+    }
+
+    // Recompute the sums from the ring, so that rounding errors do not accumulate, and keep |osc| = 1.
+    private void resync() {
+        for (int j = 0; j < sRe.length; j++) {
+            double a = 1 / sqrt(oscRe[j] * oscRe[j] + oscIm[j] * oscIm[j]);
+            oscRe[j] *= a;
+            oscIm[j] *= a;
+            // e^{-i w m} of the oldest sample in the ring, m = n - wndLen
+            double cr = oscRe[j] * endRe[j] - oscIm[j] * endIm[j];
+            double ci = oscRe[j] * endIm[j] + oscIm[j] * endRe[j];
+            double s0 = 0, s1 = 0;
+            for (int i = 0; i < wndLen; i++) {
+                double x = ring[(ringPt + i) % wndLen];
+                s0 += x * cr;
+                s1 += x * ci;
+                double t = cr * rotRe[j] - ci * rotIm[j];
+                ci = cr * rotIm[j] + ci * rotRe[j];
+                cr = t;
+            }
+            sRe[j] = s0;
+            sIm[j] = s1;
+        }
+    }
+
+    /** Amplitude of each tone in dB, as of the last sample fed. */
+    double[] getAmplitudeDB() {
+        update();
+        return amplitudeDB;
+    }
+
+    /** Phase of each tone in radians, in (-pi, pi], as of the last sample fed. */
+    double[] getPhase() {
+        update();
+        return phase;
+    }
+
+    private void update() {
+        for (int i = 0; i < freqs.length; i++) {
+            int j = 3 * i;
+            // p = e^{i d (n - wndLen)}, phase of the window start, from the oscillators of w - d and w
+            double pr = oscRe[j] * oscRe[j+1] + oscIm[j] * oscIm[j+1];
+            double pm = oscIm[j] * oscRe[j+1] - oscRe[j] * oscIm[j+1];
+            // Hann: 0.5 S(w) - 0.25 conj(p) S(w - d) - 0.25 p S(w + d)
+            double xr = 0.5 * sRe[j+1] - 0.25 * (pr * sRe[j] + pm * sIm[j]) - 0.25 * (pr * sRe[j+2] - pm * sIm[j+2]);
+            double xi = 0.5 * sIm[j+1] - 0.25 * (pr * sIm[j] - pm * sRe[j]) - 0.25 * (pr * sIm[j+2] + pm * sRe[j+2]);
+            // a sine of amplitude A gives |X| = A/2 * sum(hann) = A * wndLen / 4
+            double p = (xr * xr + xi * xi) * 16.0 / ((double) wndLen * wndLen) * gain[i];
+            if (boolAWeighting) p *= gainA[i];
+            amplitudeDB[i] = 10.0 * log10(p);
+            phase[i] = atan2(xi, xr);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(ring, 0.0);
+        Arrays.fill(sRe, 0.0);
+        Arrays.fill(sIm, 0.0);
+        Arrays.fill(oscRe, 1.0);
+        Arrays.fill(oscIm, 0.0);
+        Arrays.fill(amplitudeDB, log10(0));
+        Arrays.fill(phase, 0.0);
+        ringPt = 0;
+        nFed = 0;
+    }
+}
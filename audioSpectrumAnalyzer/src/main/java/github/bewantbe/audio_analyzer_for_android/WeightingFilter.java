@@ -0,0 +1,182 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+
+/**
+ * IEC 61672 frequency weighting as a cascade of IIR biquads, and the weighted RMS.
+ *
+ * The analog weightings have real poles at f1 = 20.6 Hz (double), f2 = 107.7 Hz,
+ * f3 = 737.9 Hz and f4 = 12194 Hz (double):
+ *   A(s) = k s^4 / ((s + w1)^2 (s + w2) (s + w3) (s + w4)^2)
+ *   C(s) = k s^2 / ((s + w1)^2 (s + w4)^2)
+ * and Z is flat. Each pair of first order factors becomes one biquad by the bilinear
+ * transform, with every pole frequency prewarped so the corners stay in place. A pole
+ * at or above 0.45 sampleRate (low rates, or after Decimator) is replaced by a first order
+ * FIR with the analog gain at DC and sampleRate/2. The gain k
+ * is set so the digital response matches the analog one at 1 kHz, or at sampleRate/4
+ * if that is lower.
+ *
+ * Costs 5 multiplications per sample per biquad, and there is no FFT involved, so the
+ * level does not depend on fftLen or the frame rate.
+ */
+class WeightingFilter {
+    private static final String TAG = "WeightingFilter:";
+
+    enum Weighting { A, C, Z }
+
+    static final double F1 = 20.598997, F2 = 107.65265, F3 = 737.86223, F4 = 12194.217;
+    static final double F_REF = 1000;
+
+    private final Weighting weighting;
+    private final int sampleRate;
+    // per biquad: y = b0 x + b1 x1 + b2 x2 - a1 y1 - a2 y2, transposed direct form II
+    private final double[] b0, b1, b2, a1, a2;
+    private final double[] z1, z2;
+    private final int nSections;
+    private double gain = 1;
+
+    private double cumRMS = 0;
+    private int    cntRMS = 0;
+    private double outRMS = 0;
+
+    WeightingFilter(Weighting weighting, int sampleRate) {
+        if (weighting == null || sampleRate <= 0) {
+            throw new IllegalArgumentException(TAG + " need a weighting and a positive sampleRate.");
+        }
+        this.weighting = weighting;
+        this.sampleRate = sampleRate;
+        // first order factors: zero at DC (true) or at infinity (false), and the pole
+        double[] poles;
+        boolean[] zeroAtDC;
+        switch (weighting) {
+            case A:
+                poles = new double[]{F1, F1, F2, F3, F4, F4};
+                zeroAtDC = new boolean[]{true, true, true, true, false, false};
+                break;
+            case C:
+                poles = new double[]{F1, F1, F4, F4};
+                zeroAtDC = new boolean[]{true, true, false, false};
+                break;
+            default:
+                poles = new double[0];
+                zeroAtDC = new boolean[0];
+        }
+        nSections = poles.length / 2;
+        b0 = new double[nSections];
+        b1 = new double[nSections];
+        b2 = new double[nSections];
+        a1 = new double[nSections];
+        a2 = new double[nSections];
+        z1 = new double[nSections];
+        z2 = new double[nSections];
+        double k = 2.0 * sampleRate;
+        for (int i = 0; i < nSections; i++) {
+            // (n0 + n1 z^-1) / (d0 + d1 z^-1) for each of the two factors
+            double[] f = new double[8];
+            for (int j = 0; j < 2; j++) {
+                double fp = poles[2*i+j];
+                boolean dc = zeroAtDC[2*i+j];
+                int o = 4 * j;
+                if (fp >= 0.45 * sampleRate) {
+                    // Pole beyond the band. s/(s+w) becomes a difference (1 - z^-1), and 1/(s+w)
+                    // becomes 1 + c z^-1, matching the analog gain at DC and at sampleRate/2.
+                    double t = 1 / sqrt(1 + (sampleRate / 2.0 / fp) * (sampleRate / 2.0 / fp));
+                    f[o] = 1;  f[o+1] = dc ? -1 : (1 - t) / (1 + t);  f[o+2] = 1;  f[o+3] = 0;
+                    continue;
+                }
+                double w = k * tan(PI * fp / sampleRate);
+                if (dc) {           // s / (s + w)
+                    f[o] = k;  f[o+1] = -k;
+                } else {            // 1 / (s + w)
+                    f[o] = 1;  f[o+1] = 1;
+                }
+                f[o+2] = k + w;
+                f[o+3] = w - k;
+            }
+            double d0 = f[2] * f[6];
+            b0[i] = f[0] * f[4] / d0;
+            b1[i] = (f[0] * f[5] + f[1] * f[4]) / d0;
+            b2[i] = f[1] * f[5] / d0;
+            a1[i] = (f[2] * f[7] + f[3] * f[6]) / d0;
+            a2[i] = f[3] * f[7] / d0;
+        }
+        double fRef = Math.min(F_REF, sampleRate / 4.0);
+        gain = sqrt(analogPowerFactor(weighting, fRef) / digitalPowerFactor(fRef));
+    }
+
+    Weighting getWeighting() {
+        return weighting;
+    }
+
+    /** Weighting of the analog (IEC 61672) filter at frequency f, as a power ratio. */
+    static double analogPowerFactor(Weighting weighting, double f) {
+        double f2 = f * f;
+        switch (weighting) {
+            case A:
+                return STFT.aWeightingPowerFactor(f);
+            case C: {
+                double r = F4 * F4 * f2 / ((f2 + F1 * F1) * (f2 + F4 * F4));
+                // normalized to 0 dB at 1 kHz
+                double r1 = F4 * F4 * 1e6 / ((1e6 + F1 * F1) * (1e6 + F4 * F4));
+                return r * r / (r1 * r1);
+            }
+            default:
+                return 1;
+        }
+    }
+
+    /** Response of this filter at frequency f, as a power ratio. */
+    double digitalPowerFactor(double f) {
+        double w = 2 * PI * f / sampleRate;
+        double c1 = cos(w), s1 = -sin(w), c2 = cos(2 * w), s2 = -sin(2 * w);
+        double p = gain * gain;
+        for (int i = 0; i < nSections; i++) {
+            double nr = b0[i] + b1[i] * c1 + b2[i] * c2, ni = b1[i] * s1 + b2[i] * s2;
+            double dr = 1 + a1[i] * c1 + a2[i] * c2,     di = a1[i] * s1 + a2[i] * s2;
+            p *= (nr * nr + ni * ni) / (dr * dr + di * di);
+        }
+        return p;
+    }
+
+    /** Filter ds[0 .. dsLen-1] and accumulate the weighted power for getRMS(). */
+    void feedData(double[] ds, int dsLen) {
+        final int m = nSections;
+        double cum = 0;
+        for (int k = 0; k < dsLen; k++) {
+            double y = ds[k] / 32768.0 * gain;
+            for (int i = 0; i < m; i++) {
+                double x = y;
+                y = b0[i] * x + z1[i];
+                z1[i] = b1[i] * x - a1[i] * y + z2[i];
+                z2[i] = b2[i] * x - a2[i] * y;
+            }
+            cum += y * y;
+        }
+        cumRMS += cum;
+        cntRMS += dsLen;
+    }
+
+    /** Weighted RMS, as STFT.getRMS(): a full scale sine is 1, renewed every 1/30 s or so. */
+    double getRMS() {
+        if (cntRMS > sampleRate/30) {
+            outRMS = sqrt(cumRMS / cntRMS * 2.0);  // "* 2.0" normalize to sine wave.
+            cumRMS = 0;
+            cntRMS = 0;
+        }
+        return outRMS;
+    }
+
+    void clear() {
+        for (int i = 0; i < nSections; i++) {
+            z1[i] = 0;
+            z2[i] = 0;
+        }
+        cumRMS = 0;
+        cntRMS = 0;
+        outRMS = 0;
+    }
+}
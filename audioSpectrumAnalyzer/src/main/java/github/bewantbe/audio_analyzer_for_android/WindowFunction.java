@@ -0,0 +1,300 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.exp;
+import static java.lang.Math.max;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+
+/**
+ * Registry of window functions, with a cache of normalized tables.
+ *
+ * A window is named "Family" or "Family, p=value", e.g. "Hanning", "Kaiser, a=5.0",
+ * "Tukey, r=0.5", "DPSS, NW=3.0"; the part after '=' is passed to the Shape of
+ * the family. New families are added by register(), not by editing STFT.
+ * Tables are shared between STFT instances and must not be modified.
+ */
+class WindowFunction {
+    private static final String TAG = "WindowFunction:";
+    static final int MAX_TABLES = 8;
+
+    /** Computes an unnormalized window of length w.length. param is NaN if the name has none. */
+    interface Shape {
+        void fill(double[] w, double param);
+    }
+
+    /** Window scaled to mean 1, and the factor that keeps the energy invariant. */
+    static final class Table {
+        final double[] wnd;
+        final double wndEnergyFactor;
+
+        private Table(double[] w) {
+            double normalizeFactor = 0;
+            for (int i=0; i<w.length; i++) {
+                normalizeFactor += w[i];
+            }
+            normalizeFactor = w.length / normalizeFactor;
+            double energy = 0;
+            for (int i=0; i<w.length; i++) {
+                w[i] *= normalizeFactor;
+                energy += w[i]*w[i];
+            }
+            wnd = w;
+            wndEnergyFactor = w.length / energy;
+        }
+    }
+
+    private static final Map<String, Shape> shapes = new HashMap<String, Shape>();
+    private static final LinkedHashMap<String, Table> tables =
+            new LinkedHashMap<String, Table>(MAX_TABLES + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Table> eldest) {
+                    return size() > MAX_TABLES;
+                }
+            };
+
+    private WindowFunction() {}
+
+    static synchronized void register(String family, Shape shape) {
+        shapes.put(family, shape);
+        // drop tables computed by a previous shape of this family
+        Iterator<String> it = tables.keySet().iterator();
+        while (it.hasNext()) {
+            String k = it.next();
+            if (k.startsWith(family + ",") || k.startsWith(family + "/")) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Normalized window of the given name and length, computed once per (name, len).
+     * Unknown names give the rectangular window.
+     */
+    static synchronized Table get(String name, int len) {
+        String key = name + "/" + len;
+        Table t = tables.get(key);
+        if (t == null) {
+            double[] w = new double[len];
+            String family = name;
+            double param = Double.NaN;
+            int comma = name.indexOf(',');
+            if (comma >= 0) {
+                family = name.substring(0, comma).trim();
+                int eq = name.indexOf('=', comma);
+                if (eq < 0) {
+                    throw new IllegalArgumentException(TAG + " no parameter value in \"" + name + "\".");
+                }
+                param = Double.parseDouble(name.substring(eq + 1).trim());
+            }
+            Shape s = shapes.get(family);
+            if (s == null) {
+                Log.w(TAG, "get(): unknown window \"" + name + "\", using Rectangular.");
+                s = shapes.get("Rectangular");
+            }
+            s.fill(w, param);
+            t = new Table(w);
+            tables.put(key, t);
+        }
+        return t;
+    }
+
+    private static double needParam(double param, String family) {
+        if (Double.isNaN(param)) {
+            throw new IllegalArgumentException(TAG + " window " + family + " needs a parameter.");
+        }
+        return param;
+    }
+
+    static {
+        register("Rectangular", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {
+                    w[i] = 1;
+                }
+            }
+        });
+        register("Bartlett", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {
+                    w[i] = asin(sin(PI*i/w.length))/PI*2;
+                }
+            }
+        });
+        register("Hanning", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {  // hw=1
+                    w[i] = 0.5*(1-cos(2*PI*i/(w.length-1.))) *2;
+                }
+            }
+        });
+        register("Blackman", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {  // hw=2
+                    w[i] = 0.42-0.5*cos(2*PI*i/(w.length-1))+0.08*cos(4*PI*i/(w.length-1));
+                }
+            }
+        });
+        register("Blackman Harris", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {  // hw=3
+                    w[i] = (0.35875-0.48829*cos(2*PI*i/(w.length-1))+0.14128*cos(4*PI*i/(w.length-1))-0.01168*cos(6*PI*i/(w.length-1))) *2;
+                }
+            }
+        });
+        // Kaiser, a = beta / pi
+        register("Kaiser", new Shape() {
+            public void fill(double[] w, double p) {
+                double a = needParam(p, "Kaiser");
+                double dn = besselCal.i0(PI * a);
+                for (int i=0; i<w.length; i++) {
+                    double x = 2.0*i/(w.length-1) - 1.0;
+                    w[i] = besselCal.i0(PI*a*sqrt(1-x*x)) / dn;
+                }
+            }
+        });
+        // 7 more window functions (by james34602, https://github.com/bewantbe/audio-analyzer-for-android/issues/14 )
+        register("Flat-top", new Shape() {
+            public void fill(double[] w, double p) {
+                for (int i=0; i<w.length; i++) {
+                    double f = 2 * PI * i / (w.length - 1);
+                    w[i] = 1 - 1.93 * cos(f) + 1.29 * cos(2 * f) - 0.388 * cos(3 * f) + 0.028 * cos(4 * f);
+                }
+            }
+        });
+        register("Nuttall", new Shape() {
+            public void fill(double[] w, double p) {
+                double a0 = 0.355768;
+                double a1 = 0.487396;
+                double a2 = 0.144232;
+                double a3 = 0.012604;
+                for (int i=0; i<w.length; i++) {
+                    double scale = PI * i / (w.length - 1);
+                    w[i] = a0 - a1 * cos(2.0 * scale) + a2 * cos(4.0 * scale) - a3 * cos(6.0 * scale);
+                }
+            }
+        });
+        register("Gaussian", new Shape() {
+            public void fill(double[] w, double p) {
+                double beta = needParam(p, "Gaussian");
+                for (int i=0; i<w.length; i++) {
+                    double arg = beta * (1.0 - ((double)i / (double)w.length) * 2.0);
+                    w[i] = exp(-0.5 * (arg * arg));
+                }
+            }
+        });
+        // Tukey, r = fraction of the window inside the cosine tapers. r=0 is Rectangular, r=1 is Hanning.
+        register("Tukey", new Shape() {
+            public void fill(double[] w, double p) {
+                double r = needParam(p, "Tukey");
+                if (r < 0 || r > 1) {
+                    throw new IllegalArgumentException(TAG + " Tukey window needs 0 <= r <= 1.");
+                }
+                double taper = r * (w.length - 1) / 2;
+                for (int i=0; i<w.length; i++) {
+                    double d = Math.min(i, w.length - 1 - i);
+                    w[i] = d < taper ? 0.5*(1 - cos(PI*d/taper)) : 1;
+                }
+            }
+        });
+        register("DPSS", new Shape() {
+            public void fill(double[] w, double p) {
+                dpss(w, needParam(p, "DPSS"));
+            }
+        });
+    }
+
+    /**
+     * First discrete prolate spheroidal (Slepian) sequence of time-bandwidth product nw:
+     * the window of length n with most energy inside |f| < nw/n.
+     * It is the top eigenvector of a symmetric tridiagonal matrix (Percival and Walden, 1993),
+     * found by Sturm sequence bisection and then inverse iteration, O(n) per step.
+     */
+    static void dpss(double[] w, double nw) {
+        final int n = w.length;
+        if (nw <= 0 || nw >= n / 2.0) {
+            throw new IllegalArgumentException(TAG + " DPSS needs 0 < NW < n/2.");
+        }
+        if (n == 1) {
+            w[0] = 1;
+            return;
+        }
+        double c = cos(2 * PI * nw / n);
+        double[] d = new double[n];    // diagonal
+        double[] e = new double[n-1];  // off diagonal
+        for (int i = 0; i < n; i++) {
+            double h = (n - 1 - 2.0*i) / 2;
+            d[i] = h * h * c;
+        }
+        for (int i = 0; i < n-1; i++) {
+            e[i] = (i + 1.0) * (n - 1 - i) / 2;
+        }
+        // Largest eigenvalue lies in [lo, hi] (Gershgorin).
+        double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double r = (i > 0 ? e[i-1] : 0) + (i < n-1 ? e[i] : 0);
+            lo = Math.min(lo, d[i] - r);
+            hi = max(hi, d[i] + r);
+        }
+        double scale = max(abs(lo), abs(hi));
+        lo = max(lo, hi - 4 * scale);  // keep lo finite
+        for (int it = 0; it < 200 && hi - lo > 1e-14 * scale; it++) {
+            double mid = 0.5 * (lo + hi);
+            if (countBelow(d, e, mid) == n) {
+                hi = mid;
+            } else {
+                lo = mid;
+            }
+        }
+        // T - hi*I is negative definite, so the elimination below needs no pivoting.
+        double shift = hi + 1e-12 * scale;
+        double[] q = new double[n];
+        for (int i = 0; i < n; i++) {
+            w[i] = 1;
+        }
+        for (int it = 0; it < 3; it++) {
+            // Solve (T - shift) x = w in place (Thomas algorithm).
+            q[0] = d[0] - shift;
+            for (int i = 1; i < n; i++) {
+                double m = e[i-1] / q[i-1];
+                q[i] = d[i] - shift - m * e[i-1];
+                w[i] -= m * w[i-1];
+            }
+            w[n-1] /= q[n-1];
+            for (int i = n-2; i >= 0; i--) {
+                w[i] = (w[i] - e[i] * w[i+1]) / q[i];
+            }
+            double norm = 0;
+            for (int i = 0; i < n; i++) {
+                norm = max(norm, abs(w[i]));
+            }
+            if (w[n/2] < 0) norm = -norm;
+            for (int i = 0; i < n; i++) {
+                w[i] /= norm;
+            }
+        }
+    }
+
+    // Number of eigenvalues of the tridiagonal (d, e) less than x.
+    private static int countBelow(double[] d, double[] e, double x) {
+        int count = 0;
+        double q = d[0] - x;
+        if (q < 0) count++;
+        for (int i = 1; i < d.length; i++) {
+            if (q == 0) q = 1e-300;
+            q = d[i] - x - e[i-1] * e[i-1] / q;
+            if (q < 0) count++;
+        }
+        return count;
+    }
+}
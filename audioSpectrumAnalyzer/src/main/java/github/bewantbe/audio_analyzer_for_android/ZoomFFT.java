@@ -0,0 +1,360 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+import com.google.corp.productivity.specialprojects.android.fft.ComplexDoubleFFT;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.ceil;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+
+/**
+ * Zoom FFT: spectrum of a narrow band [fLow, fHigh] at high resolution.
+ *
+ * The input is shifted down by fCentre (complex heterodyne), low-pass filtered and
+ * decimated by D, then analysed by a complex FFT of fftLen points. The bin spacing is
+ * sampleRate / (D * fftLen), the same as a real FFT of length 2 * D * fftLen, while the
+ * FFT and its buffers stay fftLen points.
+ * The filter output is only evaluated every D samples, with the heterodyne folded into
+ * the taps: y = e^{-i w n} sum_l (h_l e^{i w l}) x_{n-l}. That costs about
+ * 2 * nTaps / D = 57 multiply-adds per input sample, whatever D is.
+ *
+ * Only the middle PASS_FRACTION of the decimated band is output, the rest is the
+ * transition band of the filter. Levels follow STFT: a full scale sine is 0 dB.
+ *
+ * A frame needs D * fftLen input samples, so D is capped to fill it in MAX_FILL_SECONDS;
+ * a narrower band gets more bins across it instead of a finer grid. Until the first full
+ * frame, shorter frames of the newest 2^k decimated samples (at least MIN_FILL_LEN) are
+ * analysed, each on a coarser grid mapped to the output bins. See getFillFraction().
+ */
+class ZoomFFT {
+    private static final String TAG = "ZoomFFT:";
+    static final int DEFAULT_FFT_LEN = 1024;     // about one bin per pixel of the spectrum view
+    static final double PASS_FRACTION = 0.8;     // of the decimated sample rate
+    static final double STOP_DB = 90;            // aliasing rejection of the decimation filter
+    static final int MIN_DECIMATION = 4;         // below this the plain STFT is as good
+    static final int MAX_TAPS = 65536;           // limits D to about 2300 (17 Hz wide band at 48 kHz)
+    static final double MAX_FILL_SECONDS = 4;    // limits D to 187 at 48 kHz and DEFAULT_FFT_LEN
+    static final int MIN_FILL_LEN = 64;          // shortest frame analysed while filling
+
+    private final int sampleRate;
+    private final int fftLen;
+    private final int hopLen;                    // in decimated samples
+    private final int decimation;
+    private final double fCentre;
+    private final double[] tapRe, tapIm;         // h_l e^{i w l}, reversed: tap[nTaps-1-l]
+    private final double[] ring;                 // last nTaps input samples, stored twice
+    private final double rotRe, rotIm;           // e^{-i w D}, phase step between outputs
+    private double phRe = 1, phIm = 0;           // e^{-i w n} at the next output
+    private final double[] zBuf;                 // ring of the last fftLen decimated samples, re, im
+    private final double[] frame;
+    private final double[] wnd;
+    private final ComplexDoubleFFT fft;
+    private final ComplexDoubleFFT[] partialFFT; // for MIN_FILL_LEN << i points, below fftLen
+    private final double[][] partialFrame;
+    private final double[][] partialWnd;
+    private final double[] freqs;
+    private final double[] powerCum;
+    private final double[] spectrumAmpOutDB;
+    private final double[] gain;                 // 1/micGain per output bin, power ratio
+    private final double[] gainA;                // A-weighting per output bin
+    private boolean boolAWeighting = false;
+    private int ringPt = 0;
+    private int phase = 0;                       // input samples until next output
+    private int zPt = 0;
+    private int zCount = 0;                      // decimated samples since last frame
+    private int zFilled = 0;
+    private boolean partial = false;             // powerCum holds a frame shorter than fftLen
+    private int nAnalysed = 0;
+
+    double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
+
+    /** Decimation factor for a band of width span and a FFT of fftLen points, or 1 if it is too wide to zoom. */
+    static int decimationFor(int sampleRate, double span, int fftLen) {
+        if (!(span > 0)) {
+            return 1;
+        }
+        double d = floor(PASS_FRACTION * sampleRate / span);
+        double dFill = floor(MAX_FILL_SECONDS * sampleRate / fftLen);
+        return (int) max(1, min(d, min(dFill, maxDecimation())));
+    }
+
+    private static int maxDecimation() {
+        return (int) floor(MAX_TAPS / tapsPerDecimation());
+    }
+
+    // Kaiser estimate of the taps for STOP_DB and a transition of (1 - PASS_FRACTION) of the decimated rate.
+    private static double tapsPerDecimation() {
+        return (STOP_DB - 7.95) / (2.285 * 2 * PI * (1 - PASS_FRACTION));
+    }
+
+    ZoomFFT(AnalyzerParameters analyzerParam, double fLow, double fHigh) {
+        this(analyzerParam.analysisRate(), fLow, fHigh, DEFAULT_FFT_LEN, analyzerParam.wndFuncName);
+        if (analyzerParam.micGainDB != null && analyzerParam.micGainDB.length == analyzerParam.fftLen/2+1) {
+            for (int i = 0; i < freqs.length; i++) {
+                int j = (int) min(analyzerParam.micGainDB.length - 1,
+                        max(0, round(freqs[i] * analyzerParam.fftLen / sampleRate)));
+                gain[i] = pow(10, -analyzerParam.micGainDB[j] / 10.0);
+            }
+        }
+    }
+
+    /**
+     * @param fftLen complex FFT length, a power of 2.
+     */
+    ZoomFFT(int sampleRate, double fLow, double fHigh, int fftLen, String wndName) {
+        if (fLow < 0 || fHigh <= fLow || fHigh > sampleRate / 2.0) {
+            throw new IllegalArgumentException(TAG + " need 0 <= fLow < fHigh <= sampleRate/2.");
+        }
+        this.sampleRate = sampleRate;
+        this.fftLen = fftLen;
+        hopLen = fftLen / 4;
+        decimation = decimationFor(sampleRate, fHigh - fLow, fftLen);
+        // Keep the output band inside [0, sampleRate/2], where it is not a mirror image.
+        double halfOut = PASS_FRACTION / 2 * sampleRate / decimation;
+        fCentre = max(min((fLow + fHigh) / 2, sampleRate / 2.0 - halfOut), min(halfOut, sampleRate / 4.0));
+        fft = new ComplexDoubleFFT(fftLen);
+
+        // Kaiser windowed sinc, cutoff at half the decimated rate, unit gain at DC.
+        int nTaps = decimation == 1 ? 1 : 2 * (int) ceil(tapsPerDecimation() * decimation / 2) + 1;
+        double beta = 0.1102 * (STOP_DB - 8.7);
+        double w = 2 * PI * fCentre / sampleRate;
+        double fc = 0.5 / decimation;
+        double[] h = new double[nTaps];
+        double sum = 0;
+        double dn = besselCal.i0(beta);
+        for (int l = 0; l < nTaps; l++) {
+            double t = l - (nTaps - 1) / 2.0;
+            double x = nTaps == 1 ? 0 : 2.0 * l / (nTaps - 1) - 1.0;
+            double sinc = t == 0 ? 2 * fc : sin(2 * PI * fc * t) / (PI * t);
+            h[l] = sinc * besselCal.i0(beta * sqrt(1 - x * x)) / dn;
+            sum += h[l];
+        }
+        tapRe = new double[nTaps];
+        tapIm = new double[nTaps];
+        for (int l = 0; l < nTaps; l++) {
+            tapRe[nTaps - 1 - l] = h[l] / sum * cos(w * l);
+            tapIm[nTaps - 1 - l] = h[l] / sum * sin(w * l);
+        }
+        ring = new double[2 * nTaps];
+        rotRe = cos(w * decimation);
+        rotIm = -sin(w * decimation);
+
+        zBuf  = new double[2 * fftLen];
+        frame = new double[2 * fftLen];
+        wnd = WindowFunction.get(wndName, fftLen).wnd;
+        int nPartial = 0;
+        while ((MIN_FILL_LEN << nPartial) < fftLen) nPartial++;
+        partialFFT   = new ComplexDoubleFFT[nPartial];
+        partialFrame = new double[nPartial][];
+        partialWnd   = new double[nPartial][];
+        for (int i = 0; i < nPartial; i++) {
+            int len = MIN_FILL_LEN << i;
+            partialFFT[i]   = new ComplexDoubleFFT(len);
+            partialFrame[i] = new double[2 * len];
+            partialWnd[i]   = WindowFunction.get(wndName, len).wnd;
+        }
+
+        double fOut = (double) sampleRate / decimation;
+        int k = (int) floor(PASS_FRACTION / 2 * fftLen);
+        freqs = new double[2 * k + 1];
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = fCentre + (i - k) * fOut / fftLen;
+        }
+        powerCum = new double[freqs.length];
+        spectrumAmpOutDB = new double[freqs.length];
+        Arrays.fill(spectrumAmpOutDB, log10(0));
+        gain = new double[freqs.length];
+        Arrays.fill(gain, 1.0);
+        gainA = new double[freqs.length];
+        for (int i = 0; i < freqs.length; i++) {
+            gainA[i] = STFT.aWeightingPowerFactor(abs(freqs[i]));
+        }
+    }
+
+    /** Frequency of each output bin, ascending. Do not modify. */
+    double[] getFreqs() {
+        return freqs;
+    }
+
+    double getFreqLow() {
+        return freqs[0];
+    }
+
+    double getFreqHigh() {
+        return freqs[freqs.length - 1];
+    }
+
+    int getDecimation() {
+        return decimation;
+    }
+
+    int nTaps() {
+        return tapRe.length;
+    }
+
+    /** Part of the first full frame received, 1 once frames of fftLen points are output. */
+    double getFillFraction() {
+        return (double) zFilled / fftLen;
+    }
+
+    void setAWeighting(boolean isAWeighting) {
+        boolAWeighting = isAWeighting;
+    }
+
+    void feedData(double[] ds, int dsLen) {
+        final int nTaps = tapRe.length;
+        for (int i = 0; i < dsLen; i++) {
+            double s = ds[i] / 32768.0;
+            ring[ringPt] = s;
+            ring[ringPt + nTaps] = s;
+            if (++ringPt == nTaps) ringPt = 0;
+            if (phase == 0) {
+                phase = decimation;
+                filterOutput();
+            }
+            phase--;
+        }
+    }
+
+    // One decimated sample from the last nTaps inputs, ring[ringPt .. ringPt+nTaps-1], oldest first.
+    private void filterOutput() {
+        final double[] r = ring, hr = tapRe, hi = tapIm;
+        final int n = hr.length;
+        double ar = 0, ai = 0;
+        for (int l = 0, j = ringPt; l < n; l++, j++) {
+            ar += hr[l] * r[j];
+            ai += hi[l] * r[j];
+        }
+        zBuf[2*zPt]   = ar * phRe - ai * phIm;
+        zBuf[2*zPt+1] = ar * phIm + ai * phRe;
+        if (++zPt == fftLen) zPt = 0;
+        double t = phRe * rotRe - phIm * rotIm;
+        phIm = phRe * rotIm + phIm * rotRe;
+        phRe = t;
+        double a = 1 / sqrt(phRe * phRe + phIm * phIm);  // keep |ph| = 1 against rounding
+        phRe *= a;
+        phIm *= a;
+        if (zFilled < fftLen) {
+            zFilled++;
+            if (zFilled < fftLen && zFilled >= MIN_FILL_LEN && (zFilled & (zFilled - 1)) == 0) {
+                analysePartialFrame(zFilled);
+            }
+        }
+        if (++zCount >= hopLen && zFilled == fftLen) {
+            zCount = 0;
+            analyseFrame();
+        }
+    }
+
+    // The newest len (a power of 2) decimated samples, replacing any earlier partial frame.
+    private void analysePartialFrame(int len) {
+        int level = Integer.numberOfTrailingZeros(len / MIN_FILL_LEN);
+        double[] x = partialFrame[level];
+        double[] w = partialWnd[level];
+        for (int i = 0; i < len; i++) {
+            int j = (zPt - len + i + fftLen) % fftLen;   // oldest first
+            x[2*i]   = zBuf[2*j]   * w[i];
+            x[2*i+1] = zBuf[2*j+1] * w[i];
+        }
+        partialFFT[level].ft(x);
+        int k = freqs.length / 2;
+        double scale = 4.0 / ((double) len * len);
+        for (int i = 0; i < freqs.length; i++) {
+            int b = (int) round((double) (i - k) * len / fftLen);   // nearest bin of the short frame
+            b = (b % len + len) % len;
+            powerCum[i] = (x[2*b] * x[2*b] + x[2*b+1] * x[2*b+1]) * scale;
+        }
+        nAnalysed = 1;
+        partial = true;
+    }
+
+    private void analyseFrame() {
+        if (partial) {
+            Arrays.fill(powerCum, 0.0);
+            nAnalysed = 0;
+            partial = false;
+        }
+        for (int i = 0; i < fftLen; i++) {
+            int j = (zPt + i) % fftLen;   // oldest first
+            frame[2*i]   = zBuf[2*j]   * wnd[i];
+            frame[2*i+1] = zBuf[2*j+1] * wnd[i];
+        }
+        fft.ft(frame);
+        int k = freqs.length / 2;
+        double scale = 4.0 / ((double) fftLen * fftLen);  // sine amplitude squared, as STFT
+        for (int i = 0; i < freqs.length; i++) {
+            int b = (i - k + fftLen) % fftLen;
+            powerCum[i] += (frame[2*b] * frame[2*b] + frame[2*b+1] * frame[2*b+1]) * scale;
+        }
+        nAnalysed++;
+    }
+
+    int nElemSpectrumAmp() {
+        return nAnalysed;
+    }
+
+    /** Mean power of frames since last call, in dB. */
+    double[] getSpectrumAmpDB() {
+        if (nAnalysed != 0) {
+            for (int i = 0; i < powerCum.length; i++) {
+                double p = powerCum[i] / nAnalysed * gain[i];
+                if (boolAWeighting) p *= gainA[i];
+                spectrumAmpOutDB[i] = 10.0 * log10(p);
+            }
+            Arrays.fill(powerCum, 0.0);
+            nAnalysed = 0;
+            partial = false;
+        }
+        return spectrumAmpOutDB;
+    }
+
+    // Same quadratic interpolation as STFT.calculatePeak(), on the output of the last getSpectrumAmpDB().
+    void calculatePeak() {
+        final double[] db = spectrumAmpOutDB;
+        double df = freqs[1] - freqs[0];
+        int id = 0;
+        for (int i = 1; i < db.length; i++) {
+            if (db[i] > db[id]) id = i;
+        }
+        maxAmpDB = db[id];
+        maxAmpFreq = freqs[id];
+        if (id > 0 && id < db.length - 1) {
+            double x1 = db[id-1], x2 = db[id], x3 = db[id+1];
+            double a = (x3+x1)/2 - x2;
+            double b = (x3-x1)/2;
+            if (a < 0) {
+                double xPeak = -b/(2*a);
+                if (abs(xPeak) < 1) {
+                    maxAmpFreq += xPeak * df;
+                    maxAmpDB = (4*a*x2 - b*b)/(4*a);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(ring, 0.0);
+        Arrays.fill(zBuf, 0.0);
+        Arrays.fill(powerCum, 0.0);
+        Arrays.fill(spectrumAmpOutDB, log10(0));
+        ringPt = 0;
+        phase = 0;
+        phRe = 1;
+        phIm = 0;
+        zPt = 0;
+        zCount = 0;
+        zFilled = 0;
+        partial = false;
+        nAnalysed = 0;
+    }
+}
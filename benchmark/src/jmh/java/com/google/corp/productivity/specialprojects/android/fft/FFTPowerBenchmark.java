@@ -0,0 +1,69 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Power spectrum accumulation as STFT does it: threePasses is ft(), then
+ * fftToAmp() into a temporary, then adding it to the running sum (the STFT code
+ * before ftPower()); fused is RealDoubleFFT.ftPower() accumulating directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FFTPowerBenchmark {
+    @Param({"4096", "16384", "65536", "4800"})
+    int n;
+
+    private RealDoubleFFT fft;
+    private double[] input;
+    private double[] buf;
+    private double[] ampTmp;
+    private double[] ampCum;
+
+    @Setup
+    public void setup() {
+        fft = new RealDoubleFFT(n);
+        input = new double[n];
+        buf = new double[n];
+        ampTmp = new double[n/2 + 1];
+        ampCum = new double[n/2 + 1];
+        Random rnd = new Random(1);
+        for (int i = 0; i < n; i++) {
+            input[i] = rnd.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double[] threePasses() {
+        System.arraycopy(input, 0, buf, 0, n);
+        fft.ft(buf);
+        double scaler = 4.0 / ((double)n * n);
+        ampTmp[0] = buf[0]*buf[0] * scaler / 4.0;
+        int j = 1;
+        for (int i = 1; i < n - 1; i += 2, j++) {
+            ampTmp[j] = (buf[i]*buf[i] + buf[i+1]*buf[i+1]) * scaler;
+        }
+        ampTmp[j] = buf[n-1]*buf[n-1] * scaler / 4.0;
+        for (int i = 0; i < ampCum.length; i++) {
+            ampCum[i] += ampTmp[i];
+        }
+        return ampCum;
+    }
+
+    @Benchmark
+    public double[] fused() {
+        System.arraycopy(input, 0, buf, 0, n);
+        fft.ftPower(buf, ampCum, true);
+        return ampCum;
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RealDoubleFFT.ft() for power-of-two lengths, plus 4800 (mixed radix) and
+ * 4801 (Bluestein). One op is a copy of the input plus one transform,
+ * the copy keeps the data from growing over iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RealDoubleFFTBenchmark {
+    @Param({"256", "1024", "4096", "16384", "65536", "4800", "4801"})
+    int n;
+
+    private RealDoubleFFT fft;
+    private double[] input;
+    private double[] buf;
+
+    @Setup
+    public void setup() {
+        fft = new RealDoubleFFT(n);
+        input = new double[n];
+        buf = new double[n];
+        Random rnd = new Random(1);
+        for (int i = 0; i < n; i++) {
+            input[i] = rnd.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double[] ft() {
+        System.arraycopy(input, 0, buf, 0, n);
+        fft.ft(buf);
+        return buf;
+    }
+
+    @Benchmark
+    public double[] bt() {
+        System.arraycopy(input, 0, buf, 0, n);
+        fft.bt(buf);
+        return buf;
+    }
+}
@@ -0,0 +1,84 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import android.content.res.Resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * STFT.feedData() + getSpectrumAmpDB() as SamplingLoop calls them, at 48 kHz
+ * with a Hanning window. Each invocation feeds exactly FRAMES hops of white
+ * noise, and results are normalized per frame: nsPerFrame gives ns/frame,
+ * framesPerSecond gives frames/s, and the gc profiler's gc.alloc.rate.norm
+ * gives bytes allocated per frame. parallel = true runs the frames on the
+ * STFT.setParallel() workers, which keep up to 2 * workerCount() frames in
+ * flight, so compare it on a machine with several cores.
+ */
+@State(Scope.Thread)
+public class STFTBenchmark {
+    static final int FRAMES = 8;
+
+    @Param({"1024", "4096", "16384"})
+    int fftLen;
+
+    @Param({"50", "87.5", "93.75"})
+    double overlapPercent;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private STFT stft;
+    private short[] chunk;
+
+    @Setup
+    public void setup() {
+        AnalyzerParameters p = new AnalyzerParameters(new Resources());
+        p.sampleRate = 48000;
+        p.fftLen = fftLen;
+        p.overlapPercent = overlapPercent;
+        p.hopLen = (int)(fftLen*(1 - overlapPercent/100) + 0.5);
+        p.nFFTAverage = 1;
+        p.wndFuncName = "Hanning";
+        p.parallelSTFT = parallel;
+        stft = new STFT(p);
+        chunk = new short[FRAMES * p.hopLen];
+        Random rnd = new Random(1);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (short)(rnd.nextGaussian() * 3000);
+        }
+        // fill the first window, so every invocation yields FRAMES frames
+        stft.feedData(new short[fftLen - p.hopLen]);
+        stft.getSpectrumAmpDB();
+    }
+
+    private double[] feed() {
+        stft.feedData(chunk, chunk.length);
+        return stft.getSpectrumAmpDB();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(FRAMES)
+    public double[] nsPerFrame() {
+        return feed();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(FRAMES)
+    public double[] framesPerSecond() {
+        return feed();
+    }
+}
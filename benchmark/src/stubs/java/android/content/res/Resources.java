@@ -0,0 +1,15 @@
+package android.content.res;
+
+import github.bewantbe.audio_analyzer_for_android.R;
+
+/** Stub of android.content.res.Resources for JVM benchmarks, only the arrays AnalyzerParameters reads. */
+public class Resources {
+    public String[] getStringArray(int id) {
+        if (id == R.array.audio_source) {
+            return new String[] {"VOICE_RECOGNITION", "DEFAULT", "MIC"};
+        } else if (id == R.array.audio_source_id) {
+            return new String[] {"6", "0", "1"};
+        }
+        return new String[0];
+    }
+}
@@ -0,0 +1,10 @@
+package android.media;
+
+/** Stub of android.media.MediaRecorder for JVM benchmarks. */
+public class MediaRecorder {
+    public static final class AudioSource {
+        public static final int DEFAULT = 0;
+        public static final int MIC = 1;
+        public static final int VOICE_RECOGNITION = 6;
+    }
+}
@@ -0,0 +1,10 @@
+package android.util;
+
+/** Stub of android.util.Log for JVM benchmarks, prints warnings and errors only. */
+public final class Log {
+    public static int v(String tag, String msg) { return 0; }
+    public static int d(String tag, String msg) { return 0; }
+    public static int i(String tag, String msg) { return 0; }
+    public static int w(String tag, String msg) { System.err.println("W/" + tag + ": " + msg); return 0; }
+    public static int e(String tag, String msg) { System.err.println("E/" + tag + ": " + msg); return 0; }
+}
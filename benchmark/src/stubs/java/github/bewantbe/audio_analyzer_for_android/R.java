@@ -0,0 +1,9 @@
+package github.bewantbe.audio_analyzer_for_android;
+
+/** Stub of the generated R class, only what the benchmarked sources reference. */
+public final class R {
+    public static final class array {
+        public static final int audio_source = 1;
+        public static final int audio_source_id = 2;
+    }
+}